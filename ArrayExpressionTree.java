@@ -0,0 +1,426 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import textbook.AbstractBinaryTree;
+import textbook.BinaryTree;
+import textbook.Position;
+
+/**
+ * A binary tree of arithmetic expression elements stored in parallel
+ * primitive arrays rather than linked nodes.
+ *
+ * Each node is an index into the arrays: an opcode byte saying whether it is
+ * an operator, a numeric literal, a literal that keeps its spelling (such as
+ * "007", "+5" or one too large for a long) or a variable, the indices of its
+ * parent and children (-1 if absent), and an operand holding either the
+ * literal value or the id of the element in a per-tree symbol table. Nodes are appended in the
+ * order they are created, so a tree read from a prefix expression is laid out
+ * in prefix order and walking it touches memory sequentially.
+ *
+ * Positions are light-weight handles, created the first time a node is
+ * reached and then kept, so walking a tree again does not allocate; the
+ * package-private index accessors walk the arrays without any handles.
+ *
+ * The tree is built once (from a prefix expression or by copying another
+ * tree) and is read-only afterwards. Both ways of building it reject invalid
+ * expressions, so a non-empty array tree is always a valid expression.
+ */
+public class ArrayExpressionTree extends AbstractBinaryTree<String> {
+
+	// opcodes
+	static final byte LITERAL = 0;
+	// a literal whose text is not the one Long.toString gives for its value
+	static final byte LITERAL_TEXT = 1;
+	static final byte VARIABLE = 2;
+	static final byte PLUS = 3;
+	static final byte MINUS = 4;
+	static final byte TIMES = 5;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private byte[] opcode;
+	private int[] parent;
+	private int[] left;
+	private int[] right;
+	// literal value for LITERAL nodes, or symbol id for LITERAL_TEXT and
+	// VARIABLE nodes
+	private long[] operand;
+	private int size = 0;
+
+	// symbol table for variables and literals that keep their spelling
+	private String[] symbols = new String[INITIAL_CAPACITY];
+	private Term[] symbolTerms = new Term[INITIAL_CAPACITY];
+	private int symbolCount = 0;
+	private final HashMap<String, Integer> symbolIds = new HashMap<String, Integer>();
+	// handles by index, made when first needed, once the tree is built; two
+	// threads may both make one for a node, which is harmless as they are equal
+	private Slot[] slots;
+
+	/**
+	 * Handle for the node at a given index of a particular tree
+	 */
+	private static final class Slot implements TermPosition {
+		private final ArrayExpressionTree tree;
+		private final int index;
+
+		Slot(ArrayExpressionTree tree, int index) {
+			this.tree = tree;
+			this.index = index;
+		}
+
+		@Override
+		public String getElement() {
+			return tree.element(index);
+		}
+
+		@Override
+		public Term term() {
+			return tree.term(index);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Slot && ((Slot) o).tree == tree && ((Slot) o).index == index;
+		}
+
+		@Override
+		public int hashCode() {
+			return index;
+		}
+	}
+
+	private ArrayExpressionTree(int capacity) {
+		capacity = Math.max(capacity, 1);
+		opcode = new byte[capacity];
+		parent = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		operand = new long[capacity];
+	}
+
+	/**
+	 * Builds a tree from an arithmetic expression in prefix notation, in the
+	 * same way as Assignment.prefix2tree
+	 *
+	 * @param expression
+	 *            - an arithmetic expression in prefix notation
+	 * @return the tree, with nodes stored in prefix order
+	 * @throws IllegalArgumentException
+	 *             if expression was not a valid expression
+	 */
+	public static ArrayExpressionTree parse(CharSequence expression) throws IllegalArgumentException {
+		if (expression == null) {
+			throw new IllegalArgumentException("Expression string was null");
+		}
+		PrefixTokenizer tokens = new PrefixTokenizer(expression);
+		ArrayExpressionTree tree = new ArrayExpressionTree(INITIAL_CAPACITY);
+		// operators whose left or right subtree has not been read yet
+		int[] pending = new int[INITIAL_CAPACITY];
+		int depth = 0;
+		do {
+			if (!tokens.next()) {
+				throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+			}
+			int above = depth == 0 ? -1 : pending[depth - 1];
+			int node = tree.append(tokens.token(), above);
+			if (above != -1 && tree.right[above] != -1) {
+				depth--;
+			}
+			if (tokens.isOperator()) {
+				if (depth == pending.length) {
+					pending = Arrays.copyOf(pending, 2 * depth);
+				}
+				pending[depth++] = node;
+			}
+		} while (depth > 0);
+		return tree;
+	}
+
+	/**
+	 * Copies any binary tree of expression elements, such as a
+	 * LinkedBinaryTree, into the array representation
+	 *
+	 * @param tree
+	 *            - the tree to copy
+	 * @return a copy of tree, with nodes stored in prefix order
+	 * @throws IllegalArgumentException
+	 *             if tree is null, or an operator has only one child, or an
+	 *             internal node does not store an operator
+	 */
+	public static ArrayExpressionTree copyOf(BinaryTree<String> tree) throws IllegalArgumentException {
+		if (tree == null) {
+			throw new IllegalArgumentException("Tree was null");
+		}
+		ArrayExpressionTree copy = new ArrayExpressionTree(tree.size());
+		if (tree.isEmpty()) {
+			return copy;
+		}
+		// pairs of (position in tree, index of its parent in the copy)
+		ArrayDeque<Position<String>> positions = new ArrayDeque<Position<String>>();
+		ArrayDeque<Integer> parents = new ArrayDeque<Integer>();
+		positions.push(tree.root());
+		parents.push(-1);
+		while (!positions.isEmpty()) {
+			Position<String> p = positions.pop();
+			int above = parents.pop();
+			int node = copy.append(p.getElement(), above);
+			int children = tree.numChildren(p);
+			if (children == 1 || (children == 0) == (copy.opcode[node] >= PLUS)) {
+				throw new IllegalArgumentException("Tree was not a valid arithmetic expression");
+			}
+			if (children == 2) {
+				// push right first so the left subtree is copied first
+				positions.push(tree.right(p));
+				parents.push(node);
+				positions.push(tree.left(p));
+				parents.push(node);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Appends a node for element as the next free child of above (left first)
+	 */
+	private int append(String element, int above) {
+		if (size == opcode.length) {
+			grow();
+		}
+		int node = size++;
+		parent[node] = above;
+		left[node] = -1;
+		right[node] = -1;
+		encode(node, element);
+		if (above != -1) {
+			if (left[above] == -1) {
+				left[above] = node;
+			}
+			else {
+				right[above] = node;
+			}
+		}
+		return node;
+	}
+
+	private void encode(int node, String element) {
+		if (element == null) {
+			throw new IllegalArgumentException("Element was null");
+		}
+		if (element.length() == 1) {
+			switch (element.charAt(0)) {
+			case '+':
+				opcode[node] = PLUS;
+				return;
+			case '-':
+				opcode[node] = MINUS;
+				return;
+			case '*':
+				opcode[node] = TIMES;
+				return;
+			default:
+			}
+		}
+		if (isCanonicalInteger(element)) {
+			opcode[node] = LITERAL;
+			operand[node] = Long.parseLong(element);
+			return;
+		}
+		Integer id = symbolIds.get(element);
+		if (id == null) {
+			if (symbolCount == symbols.length) {
+				symbols = Arrays.copyOf(symbols, 2 * symbolCount);
+				symbolTerms = Arrays.copyOf(symbolTerms, 2 * symbolCount);
+			}
+			id = symbolCount;
+			symbolTerms[symbolCount] = Term.parse(element);
+			symbols[symbolCount++] = element;
+			symbolIds.put(element, id);
+		}
+		opcode[node] = symbolTerms[id].isLiteral() ? LITERAL_TEXT : VARIABLE;
+		operand[node] = id;
+	}
+
+	// true if element is exactly the text Long.toString would produce
+	private static boolean isCanonicalInteger(String element) {
+		int n = element.length();
+		if (n == 0) {
+			return false;
+		}
+		int i = element.charAt(0) == '-' ? 1 : 0;
+		if (i == n || n - i > 19 || (element.charAt(i) == '0' && (n - i > 1 || i == 1))) {
+			return false;
+		}
+		for (int j = i; j < n; j++) {
+			char c = element.charAt(j);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		if (n - i == 19) {
+			try {
+				Long.parseLong(element);
+			}
+			catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void grow() {
+		int capacity = 2 * opcode.length;
+		opcode = Arrays.copyOf(opcode, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		operand = Arrays.copyOf(operand, capacity);
+	}
+
+	/**
+	 * Verifies that a Position is a handle for a node of this tree
+	 */
+	private int validate(Position<String> p) throws IllegalArgumentException {
+		if (!(p instanceof Slot) || ((Slot) p).tree != this) {
+			throw new IllegalArgumentException("Not valid position type");
+		}
+		return ((Slot) p).index;
+	}
+
+	private Position<String> position(int index) {
+		if (index == -1) {
+			return null;
+		}
+		Slot[] cache = slots;
+		if (cache == null) {
+			cache = new Slot[size];
+			slots = cache;
+		}
+		Slot slot = cache[index];
+		if (slot == null) {
+			slot = new Slot(this, index);
+			cache[index] = slot;
+		}
+		return slot;
+	}
+
+	// index-based accessors, for walking the arrays directly
+
+	/**
+	 * @return index of the root node, or -1 if the tree is empty
+	 */
+	int rootIndex() {
+		return size == 0 ? -1 : 0;
+	}
+
+	byte opcode(int node) {
+		return opcode[node];
+	}
+
+	int parentIndex(int node) {
+		return parent[node];
+	}
+
+	int leftIndex(int node) {
+		return left[node];
+	}
+
+	int rightIndex(int node) {
+		return right[node];
+	}
+
+	long literal(int node) {
+		return operand[node];
+	}
+
+	String symbol(int node) {
+		return symbols[(int) operand[node]];
+	}
+
+	/**
+	 * @return the element stored at the given node, as it would be stored in
+	 *         a LinkedBinaryTree
+	 */
+	String element(int node) {
+		switch (opcode[node]) {
+		case PLUS:
+			return PrefixTokenizer.PLUS;
+		case MINUS:
+			return PrefixTokenizer.MINUS;
+		case TIMES:
+			return PrefixTokenizer.TIMES;
+		case LITERAL:
+			return Long.toString(operand[node]);
+		default:
+			// LITERAL_TEXT and VARIABLE
+			return symbols[(int) operand[node]];
+		}
+	}
+
+	/**
+	 * @return the parsed element stored at the given node
+	 */
+	Term term(int node) {
+		switch (opcode[node]) {
+		case PLUS:
+			return Term.PLUS;
+		case MINUS:
+			return Term.MINUS;
+		case TIMES:
+			return Term.TIMES;
+		case LITERAL:
+			return Term.literal(operand[node]);
+		default:
+			// LITERAL_TEXT and VARIABLE
+			return symbolTerms[(int) operand[node]];
+		}
+	}
+
+	// BinaryTree methods
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Position<String> root() {
+		return position(rootIndex());
+	}
+
+	@Override
+	public Position<String> parent(Position<String> p) throws IllegalArgumentException {
+		return position(parent[validate(p)]);
+	}
+
+	@Override
+	public Position<String> left(Position<String> p) throws IllegalArgumentException {
+		return position(left[validate(p)]);
+	}
+
+	@Override
+	public Position<String> right(Position<String> p) throws IllegalArgumentException {
+		return position(right[validate(p)]);
+	}
+
+	@Override
+	public Position<String> sibling(Position<String> p) throws IllegalArgumentException {
+		int node = validate(p);
+		int above = parent[node];
+		if (above == -1) {
+			return null;
+		}
+		return position(left[above] == node ? right[above] : left[above]);
+	}
+
+	@Override
+	public int numChildren(Position<String> p) throws IllegalArgumentException {
+		int node = validate(p);
+		return (left[node] == -1 ? 0 : 1) + (right[node] == -1 ? 0 : 1);
+	}
+
+	@Override
+	public boolean isRoot(Position<String> p) throws IllegalArgumentException {
+		return parent[validate(p)] == -1;
+	}
+}
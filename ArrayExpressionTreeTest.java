@@ -0,0 +1,43 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import textbook.LinkedBinaryTree;
+
+public class ArrayExpressionTreeTest {
+
+	// the array-backed tree can be used wherever a LinkedBinaryTree is accepted
+	@Test(timeout = 100)
+	public void testArrayExpressionTree() {
+		String prefix = "+ * 3 4 * -1 - c 10";
+		ArrayExpressionTree tree = ArrayExpressionTree.parse(prefix);
+		LinkedBinaryTree<String> linked = Assignment.prefix2tree(prefix);
+		assertEquals(9, tree.size());
+		assertTrue(Assignment.isArithmeticExpression(tree));
+		assertTrue(Assignment.equals(tree, linked));
+		assertTrue(Assignment.equals(ArrayExpressionTree.copyOf(linked), linked));
+		assertEquals(prefix, Assignment.tree2prefix(tree));
+		assertEquals(Assignment.tree2infix(linked), Assignment.tree2infix(tree));
+		assertTrue(Assignment.equals(Assignment.simplify(linked), Assignment.simplify(tree)));
+		assertTrue(Assignment.equals(Assignment.prefix2tree("+ * 3 4 * -1 - 7 10"), Assignment.substitute(tree, "c", 7)));
+		assertEquals("-", tree.right(tree.right(tree.root())).getElement());
+		assertEquals(tree.root(), tree.parent(tree.left(tree.root())));
+		// handles are kept, so walking again does not allocate new ones
+		assertSame(tree.root(), tree.parent(tree.left(tree.root())));
+		assertSame(tree.right(tree.root()), tree.sibling(tree.left(tree.root())));
+	}
+
+	// literals that keep their spelling are literals, not variables
+	@Test(timeout = 100)
+	public void testArrayExpressionTreeLiteralText() {
+		String prefix = "+ * 007 +5 - 99999999999999999999 -0";
+		ArrayExpressionTree tree = ArrayExpressionTree.parse(prefix);
+		assertEquals(prefix, Assignment.tree2prefix(tree));
+		assertEquals(ArrayExpressionTree.LITERAL_TEXT, tree.opcode(tree.leftIndex(tree.leftIndex(tree.rootIndex()))));
+		assertEquals(ArrayExpressionTree.LITERAL_TEXT, tree.opcode(tree.rightIndex(tree.rightIndex(tree.rootIndex()))));
+		assertTrue(Term.parse("007").isLiteral());
+		assertTrue(Assignment.equals(Assignment.prefix2tree(prefix), tree));
+		assertTrue(Assignment.equals(ArrayExpressionTree.copyOf(Assignment.prefix2tree(prefix)), tree));
+		assertEquals("35", Assignment.tree2prefix(Assignment.simplify(ArrayExpressionTree.parse("* 007 +5"))));
+	}
+}
@@ -1,6 +1,11 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import textbook.BinaryTree;
 import textbook.LinkedBinaryTree;
-import textbook.LinkedQueue;
 import textbook.Position;
 
 public class Assignment {
@@ -30,45 +35,165 @@ public class Assignment {
 		if (expression == null) {
 			throw new IllegalArgumentException("Expression string was null");
 		}
-		// break up the expression string using spaces, into a queue
-		LinkedQueue<String> tokens = new LinkedQueue<String>();
-		for (String token : expression.split(" ")) {
-			tokens.enqueue(token);
+		// scan the expression in place, building the tree as tokens are read
+		return prefix2tree(new PrefixTokenizer(expression));
+	}
+
+	/**
+	 * Convert the arithmetic expression (in prefix notation) in the region
+	 * [from, to) of some characters to a binary tree, without copying the
+	 * region into a String
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @param input
+	 *            - characters containing an arithmetic expression in prefix
+	 *            notation
+	 * @param from
+	 *            - index of the first character of the expression
+	 * @param to
+	 *            - index one past the last character of the expression
+	 * @return BinaryTree representing the expression
+	 * @throws IllegalArgumentException
+	 *             if input was null, the region is out of bounds or it does
+	 *             not hold a valid expression
+	 */
+	public static LinkedBinaryTree<String> prefix2tree(CharSequence input, int from, int to) throws IllegalArgumentException {
+		return prefix2tree(new PrefixTokenizer(input, from, to));
+	}
+
+	/**
+	 * Convert an arithmetic expression (in prefix notation) to a binary tree,
+	 * optionally simplifying it while it is read
+	 * 
+	 * With simplify set, the result is the same as
+	 * simplifyFancy(prefix2tree(expression)), but constant subexpressions
+	 * such as "+ 3 4" are evaluated as soon as their operands have been read,
+	 * so they never become nodes, and no intermediate tree is built.
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param expression
+	 *            - an arithmetic expression in prefix notation
+	 * @param simplify
+	 *            - true to apply the simplifications of simplifyFancy
+	 * @return BinaryTree representing the (simplified) expression
+	 * @throws IllegalArgumentException
+	 *             if expression was not a valid expression
+	 */
+	public static LinkedBinaryTree<String> prefix2tree(String expression, boolean simplify) throws IllegalArgumentException {
+		if (!simplify) {
+			return prefix2tree(expression);
 		}
-		// recursively build the tree
-		return prefix2tree(tokens);
+		if (expression == null) {
+			throw new IllegalArgumentException("Expression string was null");
+		}
+		PrefixTokenizer tokens = new PrefixTokenizer(expression);
+		ExpressionTree tree = new ExpressionTree();
+		// operators still waiting for an operand, with their left operand once
+		// it has been read: a single leaf is kept as a term, a larger
+		// (simplified) subtree as a detached node
+		ArrayList<Term> operators = new ArrayList<Term>();
+		ArrayList<Term> leftTerms = new ArrayList<Term>();
+		ArrayList<Position<String>> leftNodes = new ArrayList<Position<String>>();
+		do {
+			if (!tokens.next()) {
+				throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+			}
+			Term term = Term.parse(tokens.input(), tokens.tokenStart(), tokens.tokenEnd());
+			if (term.isOperator()) {
+				operators.add(term);
+				leftTerms.add(null);
+				leftNodes.add(null);
+				continue;
+			}
+			// a complete operand: combine it with every operator it completes
+			Position<String> node = null;
+			int top = operators.size() - 1;
+			while (top >= 0 && (leftTerms.get(top) != null || leftNodes.get(top) != null)) {
+				Term operator = operators.remove(top);
+				Term leftTerm = leftTerms.remove(top);
+				Position<String> leftNode = leftNodes.remove(top);
+				top--;
+				if (leftNode == null && node == null && leftTerm.isPlainInt() && term.isPlainInt()) {
+					// both operands are numbers, so no node is needed
+					term = NumericMode.INT.apply(operator, leftTerm, term);
+					continue;
+				}
+				if (leftNode == null) {
+					leftNode = tree.detachedNode(leftTerm);
+				}
+				if (node == null) {
+					node = tree.detachedNode(term);
+				}
+				node = SimplifyRules.FANCY.combine(tree, operator, leftNode, node, NumericMode.INT);
+			}
+			if (top >= 0) {
+				// the left operand of the innermost operator
+				leftTerms.set(top, node == null ? term : null);
+				leftNodes.set(top, node);
+			}
+			else if (node == null) {
+				tree.addRoot(term);
+			}
+			else {
+				tree.setRoot(node);
+			}
+		} while (!operators.isEmpty());
+
+		tree.markValidated();
+		return tree;
 	}
-	
+
 	/**
-	 * Recursive helper method to build an tree representing an arithmetic
-	 * expression in prefix notation, where the expression has already been
-	 * broken up into a queue of tokens
+	 * Helper method to build an tree representing an arithmetic expression in
+	 * prefix notation, reading tokens straight from a cursor over the
+	 * expression
+	 * 
+	 * The tree is built in a single pass without recursion: a stack holds the
+	 * operators that are still waiting for an operand, so arbitrarily deep
+	 * expressions can be parsed without overflowing the thread stack
 	 * 
 	 * @param tokens
 	 * @return
 	 * @throws IllegalArgumentException
 	 *             if expression was not a valid expression
 	 */
-	private static LinkedBinaryTree<String> prefix2tree(LinkedQueue<String> tokens) throws IllegalArgumentException {
-		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
-
-		// use the next element of the queue to build the root
-		if (tokens.isEmpty()) {
-			throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
-		}
-		String element = tokens.dequeue();
-		tree.addRoot(element);
+	private static LinkedBinaryTree<String> prefix2tree(PrefixTokenizer tokens) throws IllegalArgumentException {
+		ExpressionTree tree = new ExpressionTree();
+		// operators whose left or right subtree has not been read yet
+		ArrayDeque<Position<String>> pending = new ArrayDeque<Position<String>>();
 
-		// if the element is a binary operation, we need to build the left and
-		// right subtrees
-		if (element.equals("+") || element.equals("-") || element.equals("*")) {
-			LinkedBinaryTree<String> left = prefix2tree(tokens);
-			LinkedBinaryTree<String> right = prefix2tree(tokens);
-			tree.attach(tree.root(), left, right);
-		}
-		// otherwise, assume it's a variable or a value, so it's a leaf (i.e.
-		// nothing more to do)
+		do {
+			if (!tokens.next()) {
+				throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+			}
+			// parse the token once; the tree keeps the parsed term
+			Term term = Term.parse(tokens.input(), tokens.tokenStart(), tokens.tokenEnd());
+			Position<String> position;
+			if (tree.isEmpty()) {
+				position = tree.addRoot(term);
+			}
+			else {
+				// the token is the next operand of the innermost pending operator
+				Position<String> parent = pending.peek();
+				if (tree.left(parent) == null) {
+					position = tree.addLeft(parent, term);
+				}
+				else {
+					position = tree.addRight(parent, term);
+					pending.pop();
+				}
+			}
+			// if the element is a binary operation, its operands follow;
+			// otherwise assume it's a variable or a value, so it's a leaf
+			if (term.isOperator()) {
+				pending.push(position);
+			}
+		} while (!pending.isEmpty());
 
+		// built from the grammar of prefix notation, so it is valid
+		tree.markValidated();
 		return tree;
 	}
 	
@@ -80,39 +205,94 @@ public class Assignment {
 	 * @param b
 	 * @return true if the trees have the same structure and values, false otherwise
 	 */
-	public static boolean equals(LinkedBinaryTree<String> a, LinkedBinaryTree<String> b) {
+	public static boolean equals(BinaryTree<String> a, BinaryTree<String> b) {
 		return equals(a, b, a.root(), b.root());
 	}
 
 	/**
-	 * Recursive helper method to compare two trees
+	 * Test to see if two interned expressions are identical. Every distinct
+	 * subexpression is interned only once, so this is a reference comparison
+	 * and runs in O(1) time
+	 * 
+	 * @param a an expression interned by an ExpressionDag
+	 * @param b an expression interned by the same ExpressionDag
+	 * @return true if the expressions have the same structure and values, false otherwise
+	 */
+	public static boolean equals(ExpressionDag.Node a, ExpressionDag.Node b) {
+		return a == b;
+	}
+
+	/**
+	 * Helper method to compare two trees, walking both with an explicit stack
+	 * so that deep trees cannot overflow the thread stack. Subtrees of
+	 * expression trees carry their size and structural hash, so most
+	 * mismatches are found without walking them
 	 * @param aTree one of the trees to compare
 	 * @param bTree the other tree to compare
 	 * @param aRoot a position in the first tree
 	 * @param bRoot a position in the second tree (corresponding to a position in the first)
 	 * @return true if the subtrees rooted at the given positions are identical
 	 */
-	private static boolean equals(LinkedBinaryTree<String> aTree, LinkedBinaryTree<String> bTree, Position<String> aRoot, Position<String> bRoot) {
+	static boolean equals(BinaryTree<String> aTree, BinaryTree<String> bTree, Position<String> aRoot, Position<String> bRoot) {
+		if(!sameNode(aRoot, bRoot)) {
+			return false;
+		}
+		// pairs of corresponding positions whose children are still to be compared
+		ArrayDeque<Position<String>> pending = new ArrayDeque<Position<String>>();
+		if(aRoot != null) {
+			pending.push(aRoot);
+			pending.push(bRoot);
+		}
+		while(!pending.isEmpty()) {
+			Position<String> b = pending.pop();
+			Position<String> a = pending.pop();
+			//stop at the first difference, checking the left subtrees first
+			Position<String> aLeft = aTree.left(a);
+			Position<String> bLeft = bTree.left(b);
+			Position<String> aRight = aTree.right(a);
+			Position<String> bRight = bTree.right(b);
+			if(!sameNode(aLeft, bLeft) || !sameNode(aRight, bRight)) {
+				return false;
+			}
+			if(aRight != null) {
+				pending.push(aRight);
+				pending.push(bRight);
+			}
+			if(aLeft != null) {
+				pending.push(aLeft);
+				pending.push(bLeft);
+			}
+		}
+		return true;
+	}
+	
+	//helper method for equals: compares two positions (either may be null) and,
+	//where both trees cache them, the sizes and hashes of their subtrees
+	private static boolean sameNode(Position<String> aRoot, Position<String> bRoot) {
 		//if either of the positions is null, then they are the same only if they are both null
 		if(aRoot == null || bRoot == null) {
 			return (aRoot == null) && (bRoot == null);
 		}
-		//first check that the elements stored in the current positions are the same
+		if(ExpressionTree.cachesSummary(aRoot) && ExpressionTree.cachesSummary(bRoot)) {
+			if(ExpressionTree.subtreeSize(aRoot) != ExpressionTree.subtreeSize(bRoot)
+					|| ExpressionTree.structuralHash(aRoot) != ExpressionTree.structuralHash(bRoot)) {
+				return false;
+			}
+		}
+		return sameElement(aRoot, bRoot);
+	}
+	
+	//helper method for equals: compares parsed terms where the trees keep them
+	private static boolean sameElement(Position<String> aRoot, Position<String> bRoot) {
+		if(aRoot instanceof TermPosition && bRoot instanceof TermPosition) {
+			Term a = ((TermPosition) aRoot).term();
+			Term b = ((TermPosition) bRoot).term();
+			return (a==null && b==null) || (a!=null && a.matches(b));
+		}
 		String a = aRoot.getElement();
 		String b = bRoot.getElement();
-		if((a==null && b==null) || a.equals(b)) {
-			//then recursively check if the left subtrees are the same...
-			boolean left = equals(aTree, bTree, aTree.left(aRoot), bTree.left(bRoot));
-			//...and if the right subtrees are the same
-			boolean right = equals(aTree, bTree, aTree.right(aRoot), bTree.right(bRoot));
-			//return true if they both matched
-			return left && right;
-		}
-		else {
-			return false;
-		}
+		return (a==null && b==null) || a.equals(b);
 	}
-
 	
 	/**
 	 * Given a tree, this method should output a string for the corresponding
@@ -131,20 +311,68 @@ public class Assignment {
 	 * @throws IllegalArgumentException
 	 *             if tree was not a valid expression
 	 */
-	public static String tree2prefix(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+	public static String tree2prefix(BinaryTree<String> tree) throws IllegalArgumentException {
 	    if(!isArithmeticExpression(tree)){
 	    	throw new IllegalArgumentException();
 	    }
-	    return tree2prefix(tree,tree.root());
+	    StringBuilder prefix=new StringBuilder();
+	    try{
+	    	tree2prefix(tree,prefix);
+	    }
+	    catch(IOException e){
+	    	//a StringBuilder never throws IOException
+	    	throw new IllegalStateException(e);
+	    }
+	    return prefix.toString();
 	}
 	
-	//helper method tree2prefix
-	private static String tree2prefix(LinkedBinaryTree<String> tree, Position<String> root) throws IllegalArgumentException{
-		if(!tree.isExternal(root)){
-			return root.getElement()+" "+tree2prefix(tree,tree.left(root))+" "+tree2prefix(tree,tree.right(root));
+	/**
+	 * Writes the arithmetic expression represented by a tree, in prefix
+	 * notation, to a StringBuilder, Writer or any other Appendable
+	 * 
+	 * The expression is written in a single O(n) pass, element by element,
+	 * without building any intermediate strings, so large expressions can be
+	 * streamed straight to a file or socket. The tree is walked using its
+	 * parent links rather than recursion, so deep trees can be written too
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param out
+	 *            - where to write the expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or out is null
+	 * @throws IOException
+	 *             if out could not be written to
+	 */
+	public static void tree2prefix(BinaryTree<String> tree, Appendable out) throws IllegalArgumentException, IOException {
+		if(!isArithmeticExpression(tree)||out==null){
+			throw new IllegalArgumentException();
+		}
+		Position<String> root=tree.root();
+		out.append(root.getElement());
+		Position<String> next=tree.left(root);
+		while(next!=null){
+			out.append(' ');
+			out.append(next.getElement());
+			if(tree.isInternal(next)){
+				next=tree.left(next);
+			}
+			else{
+				next=nextRightSubtree(tree,next);
+			}
 		}
-		else
-		return root.getElement();
+	}
+	
+	//helper method for walking a tree without recursion: after finishing the
+	//subtree at p, returns the root of the next right subtree still to be visited
+	private static Position<String> nextRightSubtree(BinaryTree<String> tree, Position<String> p){
+		Position<String> parent=tree.parent(p);
+		//climb while we are leaving a right subtree
+		while(parent!=null&&p.equals(tree.right(parent))){
+			p=parent;
+			parent=tree.parent(p);
+		}
+		return parent==null?null:tree.right(parent);
 	}
 
 	/**
@@ -170,22 +398,57 @@ public class Assignment {
 	 * @throws IllegalArgumentException
 	 *             if tree was not a valid expression
 	 */
-	public static String tree2infix(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+	public static String tree2infix(BinaryTree<String> tree) throws IllegalArgumentException {
 		 if(!isArithmeticExpression(tree)){
 		    	throw new IllegalArgumentException();
 		    }
-		return tree2infix(tree,tree.root());
+		//first pass: the output is every element plus a pair of parenthesis
+		//around each operator, so its exact length is known in advance
+		int length=0;
+		Position<String> p=tree.root();
+		while(p!=null){
+			length+=p.getElement().length();
+			if(tree.isInternal(p)){
+				length+=2;
+				p=tree.left(p);
+			}
+			else{
+				p=nextRightSubtree(tree,p);
+			}
+		}
+		//second pass: fill the characters in order, using parent links
+		//rather than recursion so that deep trees can be written
+		char[] infix=new char[length];
+		int i=0;
+		p=tree.root();
+		while(true){
+			//open a parenthesis for every operator on the way down the left side
+			while(tree.isInternal(p)){
+				infix[i++]='(';
+				p=tree.left(p);
+			}
+			i=append(infix,i,p.getElement());
+			//close the parenthesis of every operator whose right subtree is done
+			Position<String> parent=tree.parent(p);
+			while(parent!=null&&p.equals(tree.right(parent))){
+				infix[i++]=')';
+				p=parent;
+				parent=tree.parent(p);
+			}
+			if(parent==null){
+				return new String(infix);
+			}
+			//p was a left subtree, so its operator comes next, then the right subtree
+			i=append(infix,i,parent.getElement());
+			p=tree.right(parent);
+		}
 	}
 	
-	//helper method for tree2infix
-	private static String tree2infix(LinkedBinaryTree<String> tree,Position<String> root) throws IllegalArgumentException{
-		if(!tree.isExternal(root)){
-			
-			return "("+tree2infix(tree,tree.left(root))+root.getElement()+tree2infix(tree,tree.right(root))+")";
-		}
-		else
-			
-		return root.getElement();
+	//helper method for tree2infix: copies element into infix at i, and
+	//returns the index after it
+	private static int append(char[] infix,int i,String element){
+		element.getChars(0,element.length(),infix,i);
+		return i+element.length();
 	}
 
 	/**
@@ -201,198 +464,124 @@ public class Assignment {
 	 * @throws IllegalArgumentException
 	 *             if tree was not a valid expression
 	 */
-	public static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
+	public static LinkedBinaryTree<String> simplify(BinaryTree<String> tree) throws IllegalArgumentException {
+		return simplify(tree,NumericMode.INT);
+	}
+	
+	/**
+	 * Simplifies a tree in the same way as simplify, evaluating numbers with
+	 * the given arithmetic
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param mode
+	 *            - the arithmetic to use: NumericMode.INT as in simplify, or
+	 *            NumericMode.EXACT to keep large values exact
+	 * @return resulting binary tree after evaluating as many of the subtrees as
+	 *         possible
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or mode was null
+	 */
+	public static LinkedBinaryTree<String> simplify(BinaryTree<String> tree, NumericMode mode) throws IllegalArgumentException {
+		return SimplifyRules.PLAIN.simplify(tree,mode);
+	}
+	
+	/**
+	 * Simplifies a tree in the same way as simplify, splitting the work on
+	 * large subtrees between the threads of a pool
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param mode
+	 *            - the arithmetic to use
+	 * @param pool
+	 *            - the pool to run on, e.g. ForkJoinPool.commonPool()
+	 * @return resulting binary tree after evaluating as many of the subtrees as
+	 *         possible
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or mode or pool was null
+	 */
+	public static LinkedBinaryTree<String> simplify(BinaryTree<String> tree, NumericMode mode, ForkJoinPool pool) throws IllegalArgumentException {
+		return SimplifyRules.PLAIN.simplify(tree,mode,pool);
+	}
+	
+	/**
+	 * Simplifies a tree in the same way as simplify, but by changing the tree
+	 * itself rather than building a new one. Each operator whose operands are
+	 * both numbers becomes a leaf storing the result, and its two leaves are
+	 * removed; subtrees that cannot be simplified are not touched, so nothing
+	 * is allocated for them.
+	 * 
+	 * The tree is walked using parent links, so deep trees can be simplified.
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return tree, after evaluating as many of its subtrees as possible
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, in which case it is not
+	 *             changed
+	 */
+	public static LinkedBinaryTree<String> simplifyInPlace(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
 		if(!isArithmeticExpression(tree)){
 			throw new IllegalArgumentException();
 		}
-		return simplify(tree,tree.root());
+		//post-order walk: a node is visited after both of its subtrees
+		Position<String> p=firstInPostorder(tree,tree.root());
+		while(true){
+			if(tree.isInternal(p)){
+				foldInPlace(tree,p);
+			}
+			Position<String> parent=tree.parent(p);
+			if(parent==null){
+				break;
+			}
+			if(p.equals(tree.left(parent))){
+				p=firstInPostorder(tree,tree.right(parent));
+			}
+			else{
+				p=parent;
+			}
+		}
+		//folding keeps the tree a valid expression
+		if(tree instanceof ExpressionTree){
+			((ExpressionTree) tree).markValidated();
+		}
+		return tree;
 	}
 	
-	//helper method for simplify
-	private static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree,Position<String> root) throws IllegalArgumentException {
-		//temporary tree
-		LinkedBinaryTree<String> newtree=new LinkedBinaryTree<String>();
-		if(!tree.isExternal(root)){
-			LinkedBinaryTree<String> lefttree=simplify(tree,tree.left(root));
-			LinkedBinaryTree<String> righttree=simplify(tree,tree.right(root));
-		if(root.getElement().equals("+")){
-			/*if the lefttree has only one node which is a letter
-			 * the expression cannot be simplified
-			*/
-		   if(Character.isLetter(lefttree.root().getElement().charAt(0))){
-		   newtree.addRoot("+");
-		   newtree.attach(newtree.root(),lefttree,righttree);
-		   return newtree;
-		    }
-		   /*if the righttree has only one node which is a letter
-			 * the expression cannot be simplified
-			*/
-		    if(Character.isLetter(righttree.root().getElement().charAt(0))){
-		    newtree.addRoot("+");
-		    newtree.attach(newtree.root(),lefttree,righttree);
-		    return newtree;
-		    }
-		    /*if the lefttree is not a single node tree
-			 * the expression cannot be simplified
-			*/
-		    if(lefttree.size()!=1){
-		    	newtree.addRoot("+");
-		    	newtree.attach(newtree.root(),lefttree,righttree);
-			    return newtree;
-		    }
-		    /*if the righttree is not a single node tree
-			 * the expression cannot be simplified
-			*/
-		    if(righttree.size()!=1){
-		    	newtree.addRoot("+");
-		    	newtree.attach(newtree.root(),lefttree,righttree);
-			    return newtree;
-		    }
-		    /*if both subtree are single node trees and the element of the nodes are both negative integer
-			 * the expression can be simplified, but should be careful for the sign
-			*/
-		    if(lefttree.root().getElement().charAt(0)=='-'&&righttree.root().getElement().charAt(0)=='-'){
-		    	int result=Integer.parseInt(lefttree.root().getElement().substring(1))+Integer.parseInt(righttree.root().getElement().substring(1));
-		    	newtree.addRoot("-"+result+"");
-				return newtree;
-		    }
-		    //lefttree is a single node tree and the element of the node is negative number
-		    if(lefttree.root().getElement().charAt(0)=='-'){
-		    	int result=Integer.parseInt(righttree.root().getElement())-Integer.parseInt(lefttree.root().getElement().substring(1));
-		    	newtree.addRoot(result+"");
-				return newtree;
-		    }
-		  //righttree is a single node tree and the element of the node is negative number
-		    if(righttree.root().getElement().charAt(0)=='-'){
-		    	int result=Integer.parseInt(lefttree.root().getElement())-Integer.parseInt(righttree.root().getElement().substring(1));
-		    	newtree.addRoot(result+"");
-				return newtree;
-		    }
-			int result=Integer.parseInt(lefttree.root().getElement())+Integer.parseInt(righttree.root().getElement());
-			newtree.addRoot(result+"");
-			return newtree;
-			}
-			if(root.getElement().equals("-")){
-				/*if the lefttree has only one node which is a letter
-				 * the expression cannot be simplified
-				*/
-				 if(Character.isLetter(lefttree.root().getElement().charAt(0))){
-					 newtree.addRoot("-");
-				newtree.attach(newtree.root(),lefttree,righttree);
-			    return newtree;
-			       }
-				 /*if the righttree has only one node which is a letter
-					 * the expression cannot be simplified
-					*/
-			     if(Character.isLetter(righttree.root().getElement().charAt(0))){
-				    newtree.addRoot("-");
-				    newtree.attach(newtree.root(),lefttree,righttree);
-					return newtree;
-					    }
-			     /*if the lefttree is not a single node tree
-					 * the expression cannot be simplified
-					*/
-			    if(lefttree.size()!=1){
-			    	newtree.addRoot("-");
-			    	newtree.attach(newtree.root(),lefttree,righttree);
-				    return newtree;
-			    }
-			    /*if the righttree is not a single node tree
-				 * the expression cannot be simplified
-				*/
-			    if(righttree.size()!=1){
-			    	newtree.addRoot("-");
-			    	newtree.attach(newtree.root(),lefttree,righttree);
-				    return newtree;
-			    }
-			    /*if both subtree are single node trees and the element of the nodes are both negative integer
-				 * the expression can be simplified, but should be careful for the sign
-				*/
-			    if(lefttree.root().getElement().charAt(0)=='-'&&righttree.root().getElement().charAt(0)=='-'){
-			    	int result=Integer.parseInt(righttree.root().getElement().substring(1))-Integer.parseInt(lefttree.root().getElement().substring(1));
-			    	newtree.addRoot(result+"");
-					return newtree;
-			    }
-			  //lefttree is a single node tree and the element of the node is negative number
-			    if(lefttree.root().getElement().charAt(0)=='-'){
-			    	int result=Integer.parseInt(lefttree.root().getElement().substring(1))+Integer.parseInt(righttree.root().getElement());
-			    	newtree.addRoot("-"+result+"");
-					return newtree;
-			    }
-			  //righttree is a single node tree and the element of the node is negative number
-			    if(righttree.root().getElement().charAt(0)=='-'){
-			    	int result=Integer.parseInt(lefttree.root().getElement())+Integer.parseInt(righttree.root().getElement().substring(1));
-			    	newtree.addRoot(result+"");
-					return newtree;
-			    }
-				int result=Integer.parseInt(lefttree.root().getElement())-Integer.parseInt(righttree.root().getElement());
-				newtree.addRoot(result+"");
-				return newtree;
-				}
-			if(root.getElement().equals("*")){
-				/*if the lefttree has only one node which is a letter
-				 * the expression cannot be simplified
-				*/
-			 if(Character.isLetter(lefttree.root().getElement().charAt(0))){
-					 newtree.addRoot("*");
-					   newtree.attach(newtree.root(),lefttree,righttree);
-					   return newtree;
-			  }
-			 /*if the righttree has only one node which is a letter
-				 * the expression cannot be simplified
-				*/
-			 if(Character.isLetter(righttree.root().getElement().charAt(0))){
-					   newtree.addRoot("*");
-					    newtree.attach(newtree.root(),lefttree,righttree);
-					    return newtree;
-				 }
-			 /*if the lefttree is not a single node tree
-				 * the expression cannot be simplified
-				*/
-				if(lefttree.size()!=1){
-					    	newtree.addRoot("*");
-					    	newtree.attach(newtree.root(),lefttree,righttree);
-						    return newtree;
-			    }
-				/*if the righttree is not a single node tree
-				 * the expression cannot be simplified
-				*/
-			    if(righttree.size()!=1){
-					    	newtree.addRoot("*");
-					    	newtree.attach(newtree.root(),lefttree,righttree);
-						    return newtree;
-			     }
-			    /*if both subtree are single node trees and the element of the nodes are both negative integer
-				 * the expression can be simplified, but should be careful for the sign
-				*/
-			    if(lefttree.root().getElement().charAt(0)=='-'&&righttree.root().getElement().charAt(0)=='-'){
-			    	int result=Integer.parseInt(righttree.root().getElement().substring(1))*Integer.parseInt(lefttree.root().getElement().substring(1));
-			    	newtree.addRoot(result+"");
-					return newtree;
-			    }
-			  //lefttree is a single node tree and the element of the node is negative number
-			    if(lefttree.root().getElement().charAt(0)=='-'){
-			    	int result=Integer.parseInt(lefttree.root().getElement().substring(1))*Integer.parseInt(righttree.root().getElement());
-			    	newtree.addRoot("-"+result+"");
-					return newtree;
-			    }
-			    //righttree is a single node tree and the element of the node is negative number
-			    if(righttree.root().getElement().charAt(0)=='-'){
-			    	int result=Integer.parseInt(lefttree.root().getElement())*Integer.parseInt(righttree.root().getElement().substring(1));
-			    	newtree.addRoot("-"+result+"");
-					return newtree;
-			    }
-				int result=Integer.parseInt(lefttree.root().getElement())*Integer.parseInt(righttree.root().getElement());
-				newtree.addRoot(result+"");
-				return newtree;
-				}
+	//helper method: the first node visited in a post-order walk of the
+	//subtree rooted at p
+	private static Position<String> firstInPostorder(BinaryTree<String> tree,Position<String> p){
+		while(tree.isInternal(p)){
+			p=tree.left(p);
 		}
-		else
-			
-		newtree.addRoot(root.getElement());
-		return newtree;
-		
+		return p;
 	}
+	
+	//helper method for simplifyInPlace: replaces the operator at p by its
+	//value if both of its children are numbers
+	private static void foldInPlace(LinkedBinaryTree<String> tree,Position<String> p){
+		Position<String> left=tree.left(p);
+		Position<String> right=tree.right(p);
+		if(!isNumber(tree,left)||!isNumber(tree,right)){
+			return;
+		}
+		Term result=NumericMode.INT.apply(Term.of(p),Term.of(left),Term.of(right));
+		if(tree instanceof ExpressionTree){
+			((ExpressionTree) tree).set(p,result);
+		}
+		else{
+			tree.set(p,result.text());
+		}
+		tree.remove(left);
+		tree.remove(right);
+	}
+	
+	//true if the position is a leaf storing an integer
+	private static boolean isNumber(BinaryTree<String> tree,Position<String> p){
+		return tree.isExternal(p)&&Term.of(p).isLiteral();
+	}
+
 	/**
 	 * This should do everything the simplify method does AND also apply the following rules:
 	 *  * 1 x == x  i.e.  (1*x)==x
@@ -414,266 +603,43 @@ public class Assignment {
 	 * @throws IllegalArgumentException
 	 *             if tree was not a valid expression
 	 */
-	public static LinkedBinaryTree<String> simplifyFancy(LinkedBinaryTree<String> tree) throws IllegalArgumentException {
-		if(!isArithmeticExpression(tree)){
-			throw new IllegalArgumentException();
-		}
-		return simplifyFancy(tree,tree.root());
+	public static LinkedBinaryTree<String> simplifyFancy(BinaryTree<String> tree) throws IllegalArgumentException {
+		return simplifyFancy(tree,NumericMode.INT);
 	}
-    //help method for simplifyFancy
-	private static LinkedBinaryTree<String> simplifyFancy(LinkedBinaryTree<String> tree,Position<String> root){
-		//temporary tree
-		LinkedBinaryTree<String> newtree=new LinkedBinaryTree<String>();
-		if(!tree.isExternal(root)){
-			LinkedBinaryTree<String> lefttree=simplifyFancy(tree,tree.left(root));
-			LinkedBinaryTree<String> righttree=simplifyFancy(tree,tree.right(root));
-		    if(root.getElement().equals("+")){
-		    	/*if the righttree has only one node which is 0
-				 * X+0=X
-				*/
-		    	if(righttree.root().getElement().equals("0")){
-					return lefttree;   
-			   }
-		    	/*if the lefttree has only one node which is 0
-				 * 0+X=X
-				*/
-			   if(lefttree.root().getElement().equals("0")){
-					return righttree;  
-			   }
-			   /*if the lefttree has only one node which is a letter
-				 * the expression cannot be simplified
-				*/
-			   if(Character.isLetter(lefttree.root().getElement().charAt(0))){
-				newtree.addRoot("+");
-			    newtree.attach(newtree.root(),lefttree,righttree);
-			   return newtree;
-			   }
-			   /*if the righttree has only one node which is a letter
-				 * the expression cannot be simplified
-				*/
-			   if(Character.isLetter(righttree.root().getElement().charAt(0))){
-				   newtree.addRoot("+");
-				    newtree.attach(newtree.root(),lefttree,righttree);  
-			  return newtree;
-			   }
-			   /*if the lefttree is not a single node tree
-				 * the expression cannot be simplified
-				*/
-			   if(lefttree.size()!=1){
-			    	newtree.addRoot("+");
-			    	newtree.attach(newtree.root(),lefttree,righttree);
-				    return newtree;
-	    }
-			   /*if the righttree is not a single node tree
-				 * the expression cannot be simplified
-				*/
-	    if(righttree.size()!=1){
-			    	newtree.addRoot("+");
-			    	newtree.attach(newtree.root(),lefttree,righttree);
-				    return newtree;
-	     }
-	    /*if both subtree are single node trees and the element of the nodes are both negative integer
-		 * the expression can be simplified, but should be careful for the sign
-		*/
-	    if(lefttree.root().getElement().charAt(0)=='-'&&righttree.root().getElement().charAt(0)=='-'){
-	    	int result=Integer.parseInt(lefttree.root().getElement().substring(1))+Integer.parseInt(righttree.root().getElement().substring(1));
-	    	newtree.addRoot("-"+result+"");
-			return newtree;
-	    }
-	  //lefttree is a single node tree and the element of the node is negative number
-	    if(lefttree.root().getElement().charAt(0)=='-'){
-	    	int result=Integer.parseInt(righttree.root().getElement())-Integer.parseInt(lefttree.root().getElement().substring(1));
-	    	newtree.addRoot(result+"");
-			return newtree;
-	    }
-	    //righttree is a single node tree and the element of the node is negative number
-	    if(righttree.root().getElement().charAt(0)=='-'){
-	    	int result=Integer.parseInt(lefttree.root().getElement())-Integer.parseInt(righttree.root().getElement().substring(1));
-	    	newtree.addRoot(result+"");
-			return newtree;
-	    }
-			int result=Integer.parseInt(lefttree.root().getElement())+Integer.parseInt(righttree.root().getElement());
-			newtree.addRoot(result+"");
-			return newtree;
-			}
-		if(root.getElement().equals("-")){
-			/*both lefttree and righttree are single nodes tree and nodes are both letter
-			 * if two letter is same
-			 * c-c=0
-			 */
-			if(Character.isLetter(lefttree.root().getElement().charAt(0))&&equals(lefttree,righttree)){
-				newtree.addRoot("0");
-				return newtree; 
-			}
-			/*both lefttree and righttree are multiple nodes
-			 * if two tree are same
-			 * x-x=0
-			 */
-			if(equals(lefttree,righttree)){
-			       newtree.addRoot("0");
-					return newtree; 	
-			}
-			/*if the righttree has only one node which is 0
-			 * X-0=X
-			*/
-		  if(righttree.root().getElement().equals("0")){
-						return lefttree;  
-		  }
-		  /*if the lefttree has only one node which is 0
-			 * 0-X=0-X
-			 * cannot be simplified
-			*/
-		  if(lefttree.root().getElement()=="0"){
-			    	newtree.addRoot("-");
-			    	newtree.attach(newtree.root(),lefttree,righttree);
-			    	return newtree;
-		  }
-		  /*if the lefttree has only one node which is a letter
-			 * the expression cannot be simplified
-			*/
-		  if(Character.isLetter(lefttree.root().getElement().charAt(0))){
-				newtree.addRoot("-");
-			    newtree.attach(newtree.root(),lefttree,righttree);
-			   return newtree;
-			   }
-		  /*if the righttree has only one node which is a letter
-			 * the expression cannot be simplified
-			*/
-			   if(Character.isLetter(righttree.root().getElement().charAt(0))){
-				   newtree.addRoot("-");
-				    newtree.attach(newtree.root(),lefttree,righttree);  
-			  return newtree;
-			   }
-			   /*if the lefttree is not a single node tree
-				 * the expression cannot be simplified
-				*/
-			   if(lefttree.size()!=1){
-			    	newtree.addRoot("-");
-			    	newtree.attach(newtree.root(),lefttree,righttree);
-				    return newtree;
-	    }
-			   /*if the righttree is not a single node tree
-				 * the expression cannot be simplified
-				*/
-	    if(righttree.size()!=1){
-			    	newtree.addRoot("-");
-			    	newtree.attach(newtree.root(),lefttree,righttree);
-				    return newtree;
-	     }
-	    /*if both subtree are single node trees and the element of the nodes are both negative integer
-		 * the expression can be simplified, but should be careful for the sign
-		*/
-	    if(lefttree.root().getElement().charAt(0)=='-'&&righttree.root().getElement().charAt(0)=='-'){
-	    	int result=Integer.parseInt(righttree.root().getElement().substring(1))-Integer.parseInt(lefttree.root().getElement().substring(1));
-	    	newtree.addRoot(result+"");
-			return newtree;
-	    }
-	  //lefttree is a single node tree and the element of the node is negative number
-	    if(lefttree.root().getElement().charAt(0)=='-'){
-	    	int result=Integer.parseInt(lefttree.root().getElement().substring(1))+Integer.parseInt(righttree.root().getElement());
-	    	newtree.addRoot("-"+result+"");
-			return newtree;
-	    }
-	  //righttree is a single node tree and the element of the node is negative number
-	    if(righttree.root().getElement().charAt(0)=='-'){
-	    	int result=Integer.parseInt(lefttree.root().getElement())+Integer.parseInt(righttree.root().getElement().substring(1));
-	    	newtree.addRoot(result+"");
-			return newtree;
-	    }
-	     int result=Integer.parseInt(lefttree.root().getElement())-Integer.parseInt(righttree.root().getElement());
-				newtree.addRoot(result+"");
-				return newtree;
-		}
-		if(root.getElement().equals("*")){
-			/*if the righttree has only one node which is 0
-			 * X*0=0
-			*/
-		      if(righttree.root().getElement().equals("0")){
-					newtree.addRoot("0");
-					return newtree;   
-		        }
-		      /*if the righttree has only one node which is 0
-				 * 0*X=0
-				*/
-		      if(lefttree.root().getElement().equals("0")){
-				   newtree.addRoot("0");
-					return newtree;  
-			   }
-		      /*if the righttree has only one node which is 1
-				 * 1*X=X
-				*/
-		       if(lefttree.root().getElement().equals("1")){
-				 
-					return righttree;  
-			   }
-		       /*if the righttree has only one node which is 1
-				 * X*1=X
-				*/
-		       if(righttree.root().getElement().equals("1")){
-					return lefttree;   
-			   }
-		       /*if the lefttree has only one node which is a letter
-				 * the expression cannot be simplified
-				*/
-		       if(Character.isLetter(lefttree.root().getElement().charAt(0))){
-					newtree.addRoot("*");
-				    newtree.attach(newtree.root(),lefttree,righttree);
-				   return newtree;
-				   }
-		       /*if the righttree has only one node which is a letter
-				 * the expression cannot be simplified
-				*/
-				   if(Character.isLetter(righttree.root().getElement().charAt(0))){
-					   newtree.addRoot("*");
-					    newtree.attach(newtree.root(),lefttree,righttree);  
-				  return newtree;
-				   }
-				   /*if the lefttree is not a single node tree
-					 * the expression cannot be simplified
-					*/
-			if(lefttree.size()!=1){
-				    	newtree.addRoot("*");
-				    	newtree.attach(newtree.root(),lefttree,righttree);
-					    return newtree;
-		    }
-			/*if the righttree is not a single node tree
-			 * the expression cannot be simplified
-			*/
-		    if(righttree.size()!=1){
-				    	newtree.addRoot("*");
-				    	newtree.attach(newtree.root(),lefttree,righttree);
-					    return newtree;
-		     }
-		    /*if both subtree are single node trees and the element of the nodes are both negative integer
-			 * the expression can be simplified, but should be careful for the sign
-			*/
-		    if(lefttree.root().getElement().charAt(0)=='-'&&righttree.root().getElement().charAt(0)=='-'){
-		    	int result=Integer.parseInt(righttree.root().getElement().substring(1))*Integer.parseInt(lefttree.root().getElement().substring(1));
-		    	newtree.addRoot(result+"");
-				return newtree;
-		    }
-		  //lefttree is a single node tree and the element of the node is negative number
-		    if(lefttree.root().getElement().charAt(0)=='-'){
-		    	int result=Integer.parseInt(lefttree.root().getElement().substring(1))*Integer.parseInt(righttree.root().getElement());
-		    	newtree.addRoot("-"+result+"");
-				return newtree;
-		    }
-		  //righttree is a single node tree and the element of the node is negative number
-		    if(righttree.root().getElement().charAt(0)=='-'){
-		    	int result=Integer.parseInt(lefttree.root().getElement())*Integer.parseInt(righttree.root().getElement().substring(1));
-		    	newtree.addRoot("-"+result+"");
-				return newtree;
-		    }
-				int result=Integer.parseInt(lefttree.root().getElement())*Integer.parseInt(righttree.root().getElement());
-				newtree.addRoot(result+"");
-				return newtree;
-				}
-		}
-		else
-			
-		newtree.addRoot(root.getElement());
-		return newtree;
-		
+	
+	/**
+	 * Simplifies a tree in the same way as simplifyFancy, evaluating numbers
+	 * with the given arithmetic
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param mode
+	 *            - the arithmetic to use: NumericMode.INT as in simplifyFancy,
+	 *            or NumericMode.EXACT to keep large values exact
+	 * @return resulting binary tree after applying the simplifications
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or mode was null
+	 */
+	public static LinkedBinaryTree<String> simplifyFancy(BinaryTree<String> tree, NumericMode mode) throws IllegalArgumentException {
+		return SimplifyRules.FANCY.simplify(tree,mode);
+	}
+	
+	/**
+	 * Simplifies a tree in the same way as simplifyFancy, splitting the work
+	 * on large subtrees between the threads of a pool
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param mode
+	 *            - the arithmetic to use
+	 * @param pool
+	 *            - the pool to run on, e.g. ForkJoinPool.commonPool()
+	 * @return resulting binary tree after applying the simplifications
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or mode or pool was null
+	 */
+	public static LinkedBinaryTree<String> simplifyFancy(BinaryTree<String> tree, NumericMode mode, ForkJoinPool pool) throws IllegalArgumentException {
+		return SimplifyRules.FANCY.simplify(tree,mode,pool);
 	}
 	
 	/**
@@ -694,30 +660,29 @@ public class Assignment {
 	 *             if tree was not a valid expression, or either of the other
 	 *             arguments are null
 	 */
-	public static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, String variable, int value)
+	public static LinkedBinaryTree<String> substitute(BinaryTree<String> tree, String variable, int value)
 			throws IllegalArgumentException {
 		if(!isArithmeticExpression(tree)||variable==null||variable.equals("+")||variable.equals("-")||variable.equals("*")||Character.isDigit(variable.charAt(0))){
 			throw new IllegalArgumentException();
 		}
-		return substitute(tree,tree.root(),variable,value);
+		ExpressionTree newtree=new ExpressionTree();
+		newtree.setRoot(substitute(tree,tree.root(),Term.parse(variable),Term.literal(value),newtree));
+		newtree.markValidated();
+		return newtree;
 	}
 	
 	//helper method for substitute
-	private static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, Position<String> root,String variable, int value){
-		LinkedBinaryTree<String> newtree=new LinkedBinaryTree<String>();
+	private static Position<String> substitute(BinaryTree<String> tree, Position<String> root,Term variable, Term value,ExpressionTree out){
+		Term term=Term.of(root);
 		if(!tree.isExternal(root)){
-			newtree.addRoot(root.getElement());
-			newtree.attach(newtree.root(), substitute(tree,tree.left(root),variable,value), substitute(tree,tree.right(root),variable,value));
-			return newtree;
+			return out.detachedNode(term, substitute(tree,tree.left(root),variable,value,out), substitute(tree,tree.right(root),variable,value,out));
 		}
 		else
 	    // if find the corresponding variable in tree nodes
-		 if(root.getElement().equals(variable)){
-			 newtree.addRoot(value+"");
-			 return newtree;
+		 if(variable.matches(term)){
+			 return out.detachedNode(value);
 		 }
-		newtree.addRoot(root.getElement());
-		return newtree;
+		return out.detachedNode(term);
 	}
 
 	/**
@@ -737,33 +702,107 @@ public class Assignment {
 	 *             if tree was not a valid expression, or map is null, or tries
 	 *             to substitute a null into the tree
 	 */
-	public static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, HashMap<String, Integer> map)
+	public static LinkedBinaryTree<String> substitute(BinaryTree<String> tree, HashMap<String, Integer> map)
 			throws IllegalArgumentException {
 		if(!isArithmeticExpression(tree)||map==null){
 			throw new IllegalArgumentException();
 		}
-		return substitute(tree,map,tree.root());
+		ExpressionTree newtree=new ExpressionTree();
+		newtree.setRoot(substitute(tree,map,tree.root(),newtree));
+		newtree.markValidated();
+		return newtree;
 	}
 	//helper method for substitute
-	private static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, HashMap<String, Integer> map,Position<String> root){
-		LinkedBinaryTree<String> newtree=new LinkedBinaryTree<String>();
+	private static Position<String> substitute(BinaryTree<String> tree, HashMap<String, Integer> map,Position<String> root,ExpressionTree out){
+		Term term=Term.of(root);
 		if(!tree.isExternal(root)){
-			newtree.addRoot(root.getElement());
-			newtree.attach(newtree.root(), substitute(tree,map,tree.left(root)), substitute(tree,map,tree.right(root)));
-			return newtree;
+			return out.detachedNode(term, substitute(tree,map,tree.left(root),out), substitute(tree,map,tree.right(root),out));
 		}
 		else
 		// if the map contain the tree nodes
-		if(map.containsKey(root.getElement())){
+		if(term!=null&&map.containsKey(term.text())){
+			Integer value=map.get(term.text());
 			//the substitute cannot be null
-			if(map.get(root.getElement())==null){
+			if(value==null){
 				throw new IllegalArgumentException();
 			}
-			newtree.addRoot(map.get(root.getElement())+"");
-	 		return newtree;
+			return out.detachedNode(Term.literal(value));
+		}
+		return out.detachedNode(term);
+	}
+
+	/**
+	 * Given a tree and values for its variables, computes the value of the
+	 * expression directly, without building a substituted tree or formatting
+	 * and parsing numbers
+	 * 
+	 * The tree is walked once using parent links, with operand values kept on
+	 * a stack of longs, so no object is allocated per node and deep trees can
+	 * be evaluated.
+	 * 
+	 * Example: evaluate(+ * a b c, {a=3, b=4, c=-1}) == 11
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param bindings
+	 *            - the value of every variable in the tree
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, bindings is null, or a
+	 *             variable of the tree has no value
+	 * @throws ArithmeticException
+	 *             if a literal or a result does not fit in a long
+	 */
+	public static long evaluate(BinaryTree<String> tree, Bindings bindings)
+			throws IllegalArgumentException, ArithmeticException {
+		if(!isArithmeticExpression(tree)||bindings==null){
+			throw new IllegalArgumentException();
+		}
+		long[] stack=new long[16];
+		int top=0;
+		//post-order walk: a node is visited after both of its subtrees
+		Position<String> p=firstInPostorder(tree,tree.root());
+		while(true){
+			Term term=Term.of(p);
+			if(term.isOperator()){
+				long b=stack[--top];
+				long a=stack[top-1];
+				switch(term.operator()){
+				case '+':
+					stack[top-1]=Math.addExact(a,b);
+					break;
+				case '-':
+					stack[top-1]=Math.subtractExact(a,b);
+					break;
+				default:
+					stack[top-1]=Math.multiplyExact(a,b);
+				}
+			}
+			else{
+				if(top==stack.length){
+					stack=Arrays.copyOf(stack,2*top);
+				}
+				if(term.isVariable()){
+					stack[top++]=bindings.get(term);
+				}
+				else if(term.isLong()){
+					stack[top++]=term.longValue();
+				}
+				else{
+					throw new ArithmeticException("Literal does not fit in a long: "+term);
+				}
+			}
+			Position<String> parent=tree.parent(p);
+			if(parent==null){
+				return stack[0];
+			}
+			if(p.equals(tree.left(parent))){
+				p=firstInPostorder(tree,tree.right(parent));
+			}
+			else{
+				p=parent;
+			}
 		}
-		newtree.addRoot(root.getElement());
-		return newtree;
 	}
 
 	/**
@@ -777,31 +816,55 @@ public class Assignment {
 	 * @return true if the tree is not null and it obeys the structure of an
 	 *              arithmetic expression. Otherwise, it returns false
 	 */
-	public static boolean isArithmeticExpression(LinkedBinaryTree<String> tree) {
-		// TODO: Implement this method
+	public static boolean isArithmeticExpression(BinaryTree<String> tree) {
 		if(tree==null){
 			return false;
 		}
-		return isArithmeticExpression(tree,tree.root());
+		//trees that are already known to be valid need no walk; an empty tree never is
+		if(tree instanceof ExpressionTree && ((ExpressionTree) tree).isValidated() && !tree.isEmpty()){
+			return true;
+		}
+		if(tree instanceof ArrayExpressionTree){
+			//array trees can only be built from valid expressions
+			return !tree.isEmpty();
+		}
+		boolean valid=isArithmeticExpression(tree,tree.root());
+		if(valid && tree instanceof ExpressionTree){
+			((ExpressionTree) tree).markValidated();
+		}
+		return valid;
 	}
-	//helper method
-	private static boolean isArithmeticExpression(LinkedBinaryTree<String> tree, Position<String> root){
-		if(!tree.isExternal(root)){
+	//helper method: walks the tree using parent links, so deep trees cannot
+	//overflow the thread stack
+	private static boolean isArithmeticExpression(BinaryTree<String> tree, Position<String> root){
+		//an empty tree is not an expression
+		if(root==null){
+			return false;
+		}
+		Position<String> p=root;
+		while(p!=null){
+			int children=tree.numChildren(p);
 			//the node only have one child, which is invalid arithmetic expression e.g 4 +
-			if(tree.numChildren(root)==1){
+			if(children==1){
 				return false;
 			}
-			if(isArithmeticExpression(tree,tree.left(root))&&isArithmeticExpression(tree,tree.right(root))){
-				return true;
+			if(children==2){
+				// internal nodes must be operators  e.g x 1 2   invalid expression
+				Term term=Term.of(p);
+				if(term==null||!term.isOperator()){
+					return false;
+				}
+				p=tree.left(p);
 			}
-			else
-				return false;
-		}
-		else
-			// leaf cannot be operators  e.g 4 + +   invalid expression
-			if(root.getElement().equals("+")||root.getElement().equals("-")||root.getElement().equals("*")){
-				return false;
+			else{
+				// leaf cannot be operators  e.g 4 + +   invalid expression
+				Term term=Term.of(p);
+				if(term==null||term.isOperator()){
+					return false;
+				}
+				p=nextRightSubtree(tree,p);
 			}
+		}
 		return true;
 	}
 
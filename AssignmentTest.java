@@ -1,18 +1,48 @@
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import textbook.LinkedBinaryTree;
+import textbook.Position;
 
 public class AssignmentTest {
 	
 	// Set up JUnit to be able to check for expected exceptions
 	@Rule
 	public ExpectedException thrown = ExpectedException.none();
+
+	// trees that the tests of other classes build too
+
+	// a tree of depth copies of operator leaning left: each has right as its
+	// right operand and the next as its left, and the last has leaf instead
+	static LinkedBinaryTree<String> leftChain(String operator, String right, int depth, String leaf) {
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		Position<String> p = tree.addRoot(operator);
+		for (int i = 1; i < depth; i++) {
+			tree.addRight(p, right);
+			p = tree.addLeft(p, operator);
+		}
+		tree.addLeft(p, leaf);
+		tree.addRight(p, right);
+		return tree;
+	}
+
+	// the shape of "+ 1 2" with the variable x where the operator should be
+	static LinkedBinaryTree<String> operandWithChildren() {
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		tree.addRoot("x");
+		tree.addLeft(tree.root(), "1");
+		tree.addRight(tree.root(), "2");
+		return tree;
+	}
 /***********************
  * 
  * 
@@ -59,9 +89,69 @@ public class AssignmentTest {
 		thrown.expect(IllegalArgumentException.class);
 		tree = Assignment.prefix2tree("+ 5 - 4");
 	}
+	
+	// tokens may be separated by any run of whitespace
+	@Test(timeout = 100)
+	public void testPrefix2treeWhitespace() {
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("  +\t5   - 4\n3 ");
+		assertTrue(Assignment.equals(tree, Assignment.prefix2tree("+ 5 - 4 3")));
+		
+		PrefixTokenizer tokens = new PrefixTokenizer("* x -7");
+		assertTrue(tokens.next());
+		assertEquals('*', tokens.operator());
+		assertTrue(tokens.next());
+		assertEquals("x", tokens.token());
+		assertTrue(tokens.next());
+		assertFalse(tokens.isOperator());
+		assertEquals("-7", tokens.token());
+		assertFalse(tokens.next());
+		
+		thrown.expect(IllegalArgumentException.class);
+		tree = Assignment.prefix2tree("   ");
+	}
 /**************************
  * Tests designed by myself
  **************************/
+//tests for prefix2tree
+	// a deeply right-leaning chain must not overflow the thread stack
+	@Test(timeout = 60000)
+	public void testPrefix2treeDeepChain() {
+		int depth = 10000000;
+		String expression = "+ x ".repeat(depth) + "1";
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+		expression = null;
+		assertEquals(2 * depth + 1, tree.size());
+		Position<String> position = tree.root();
+		for (int i = 0; i < depth; i++) {
+			assertEquals("+", position.getElement());
+			assertEquals("x", tree.left(position).getElement());
+			position = tree.right(position);
+		}
+		assertEquals("1", position.getElement());
+	}
+
+//tests for equals
+	// cached subtree hashes must follow changes made to the tree
+	@Test(timeout = 5000)
+	public void testEqualsAfterUpdates() {
+		LinkedBinaryTree<String> a = Assignment.prefix2tree("+ x * 1 y");
+		LinkedBinaryTree<String> b = Assignment.prefix2tree("+ x * 2 y");
+		assertFalse(Assignment.equals(a, b));
+		b.set(b.left(b.right(b.root())), "1");
+		assertTrue(Assignment.equals(a, b));
+		b.remove(b.right(b.right(b.root())));
+		assertFalse(Assignment.equals(a, b));
+		b.addRight(b.right(b.root()), "y");
+		assertTrue(Assignment.equals(a, b));
+		
+		String chain = "- x ".repeat(100000);
+		a = Assignment.prefix2tree(chain + "1");
+		b = Assignment.prefix2tree(chain + "1");
+		assertTrue(Assignment.equals(a, b));
+		b.set(b.root(), "+");
+		assertFalse(Assignment.equals(a, b));
+	}
+
 //tests for tree2prefix
 	@Test(timeout = 100)
 	public void testTree2prefix() {
@@ -75,6 +165,17 @@ public class AssignmentTest {
 		assertEquals("- x * -7 - c + 6 5", Assignment.tree2prefix(tree2));
 		
 	}
+	// prefix output can be streamed, and deep trees can be written
+	@Test(timeout = 5000)
+	public void testTree2prefixAppendable() throws IOException {
+		StringWriter out = new StringWriter();
+		Assignment.tree2prefix(Assignment.prefix2tree("- + 2 15 * x -4"), out);
+		assertEquals("- + 2 15 * x -4", out.toString());
+		
+		String expression = "* y - ".repeat(50000) + "1" + " z".repeat(50000);
+		assertEquals(expression, Assignment.tree2prefix(Assignment.prefix2tree(expression)));
+	}
+	
 	@Test(timeout = 100) //invalid expression
 	public void testTree2prefixException() {
 		thrown.expect(IllegalArgumentException.class);
@@ -94,7 +195,25 @@ public class AssignmentTest {
 		
 		LinkedBinaryTree<String> tree2 = Assignment.prefix2tree("- x * -7 - 8 + 6 5");
 		assertEquals("(x-(-7*(8-(6+5))))", Assignment.tree2infix(tree2));
-		
+
+	}
+	// deep trees of any kind can be checked and written
+	@Test(timeout = 5000)
+	public void testTree2infixDeep() {
+		int depth = 100000;
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		Position<String> position = tree.addRoot("-");
+		for (int i = 1; i < depth; i++) {
+			tree.addRight(position, "7");
+			position = tree.addLeft(position, i % 2 == 0 ? "-" : "*");
+		}
+		tree.addLeft(position, "x");
+		tree.addRight(position, "y");
+		String infix = Assignment.tree2infix(tree);
+		assertEquals(4 * depth + 1, infix.length());
+		assertEquals(depth, infix.indexOf("x*y)-7)*7)-7)"));
+		assertTrue(infix.endsWith("-7)*7)-7)"));
+		assertEquals(infix, Assignment.tree2infix(Assignment.prefix2tree(Assignment.tree2prefix(tree))));
 	}
 	@Test(timeout = 100)  //invalid expression
 	public void testTree2infixException() {
@@ -162,6 +281,46 @@ public class AssignmentTest {
 		LinkedBinaryTree<String> expected = Assignment.prefix2tree("- c + b * d a");
 		assertTrue(Assignment.equals(tree, expected));
 	}
+	
+	@Test(timeout = 100) //elements keep their spelling, but are folded by value
+	public void testSimplifyLiteralSpelling() {
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("+ * 007 x - -0 3.5");
+		assertEquals("+ * 007 x - -0 3.5", Assignment.tree2prefix(Assignment.simplify(tree)));
+		tree = Assignment.simplify(Assignment.prefix2tree("+ 007 * -2 -0"));
+		assertEquals("7", tree.root().getElement());
+	}
+
+	// exact arithmetic keeps values that overflow an int or a long
+	@Test(timeout = 1000)
+	public void testSimplifyExact() {
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("* 100000 100000");
+		assertEquals("1410065408", Assignment.tree2prefix(Assignment.simplify(tree)));
+		assertEquals("10000000000", Assignment.tree2prefix(Assignment.simplify(tree, NumericMode.EXACT)));
+
+		tree = Assignment.prefix2tree("- + 9223372036854775807 1 1");
+		assertEquals("9223372036854775807", Assignment.tree2prefix(Assignment.simplify(tree, NumericMode.EXACT)));
+		tree = Assignment.prefix2tree("* x * 99999999999999999999 -10");
+		assertEquals("* x -999999999999999999990",
+				Assignment.tree2prefix(Assignment.simplifyFancy(tree, NumericMode.EXACT)));
+		tree = Assignment.prefix2tree("* y - 12345678901234567890123 12345678901234567890123");
+		assertEquals("0", Assignment.tree2prefix(Assignment.simplifyFancy(tree, NumericMode.EXACT)));
+
+		thrown.expect(NumberFormatException.class);
+		Assignment.simplify(Assignment.prefix2tree("+ 9223372036854775807 1"), NumericMode.INT);
+	}
+
+	// both rule sets handle trees too deep to simplify recursively
+	@Test(timeout = 5000)
+	public void testSimplifyDeep() {
+		String expression = "+ x * 1 ".repeat(50000) + "- 7 7";
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+		assertEquals(expression.replace("* 1 - 7 7", "0"), Assignment.tree2prefix(Assignment.simplify(tree)));
+		String fancy = Assignment.tree2prefix(Assignment.simplifyFancy(tree));
+		assertEquals(expression.replace("* 1 ", "").replace("+ x - 7 7", "x"), fancy);
+		ArrayExpressionTree array = ArrayExpressionTree.parse(expression);
+		assertEquals(fancy, Assignment.tree2prefix(SimplifyRules.FANCY.simplify(array, NumericMode.EXACT)));
+	}
+
 	@Test(timeout = 100) //invalid expression
 	public void testSimplifyException() {
 		thrown.expect(IllegalArgumentException.class);
@@ -182,7 +341,62 @@ public class AssignmentTest {
 		tree3=null;
 		LinkedBinaryTree<String> test3 = Assignment.simplify(tree3);
 	}
-	
+
+	// the rule engine only sees trees whose internal nodes are operators
+	@Test(timeout = 1000)
+	public void testSimplifyOperandWithChildren() {
+		LinkedBinaryTree<String> tree = operandWithChildren();
+		try {
+			Assignment.simplify(tree);
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+		try {
+			Assignment.simplifyFancy(tree, NumericMode.EXACT, ForkJoinPool.commonPool());
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+		try {
+			Assignment.simplifyInPlace(tree);
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+		assertEquals("x", tree.root().getElement());
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.simplifyFancy(tree);
+	}
+
+	// simplifying in place gives the same tree as simplify, for both kinds of tree
+	@Test(timeout = 5000)
+	public void testSimplifyInPlace() {
+		String expression = "- * + 2 3 4 + x * 1 - 5 5";
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+		Position<String> variable = tree.left(tree.right(tree.root()));
+		assertSame(tree, Assignment.simplifyInPlace(tree));
+		assertEquals("- 20 + x 0", Assignment.tree2prefix(tree));
+		assertEquals(5, tree.size());
+		assertSame(variable, tree.left(tree.right(tree.root())));
+
+		LinkedBinaryTree<String> plain = new LinkedBinaryTree<String>();
+		plain.addRoot("*");
+		plain.addLeft(plain.root(), "6");
+		plain.addRight(plain.root(), "7");
+		Assignment.simplifyInPlace(plain);
+		assertEquals("42", Assignment.tree2prefix(plain));
+
+		String chain = "+ y - 3 ".repeat(99999);
+		tree = Assignment.prefix2tree(chain + "+ y - 3 1");
+		Assignment.simplifyInPlace(tree);
+		assertEquals(chain + "+ y 2", Assignment.tree2prefix(tree));
+
+		thrown.expect(IllegalArgumentException.class);
+		plain.addLeft(plain.root(), "1");
+		Assignment.simplifyInPlace(plain);
+	}
+
 //tests for simplifyFancy
 	@Test(timeout = 100)
 	//subtract 2 same sub tree with letter
@@ -271,6 +485,25 @@ public class AssignmentTest {
 			LinkedBinaryTree<String> expected = Assignment.prefix2tree("-7");
 			assertTrue(Assignment.equals(tree, expected));
 		}
+		// zero is recognised by its value, so "-0" folds like "0", and products are never written "-0";
+		// the original compared "0" by reference and formatted a negative zero product as "-0"
+		@Test(timeout = 100)
+		public void testSimplifyZeroAndSigns() {
+			assertEquals("-1", Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree("- * + -1 - 10 1 - * 1 y y 1"))));
+			assertEquals("0", Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree("* * -3 * 1 0 1"))));
+			assertEquals("0", Assignment.tree2prefix(Assignment.simplify(Assignment.prefix2tree("* * -3 * 1 0 1"))));
+			assertEquals("0", Assignment.tree2prefix(Assignment.simplify(Assignment.prefix2tree("* -1 0"))));
+			assertEquals("x", Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree("+ -0 x"))));
+
+			// a sign is part of a literal, as Integer.parseInt allows, and its spelling is kept when it is not folded
+			assertEquals("6", Assignment.tree2prefix(Assignment.simplify(Assignment.prefix2tree("+ +5 1"))));
+			assertEquals("6", Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree("+ +5 1"))));
+			assertEquals("* +5 x", Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree("* +5 x"))));
+			assertTrue(Term.parse("+5").isLiteral());
+			assertEquals(5, Term.parse("+5").longValue());
+			assertTrue(Term.parse("+x").isVariable());
+			assertTrue(Term.parse("+-5").isVariable());
+		}
 		@Test(timeout = 100) //invalid expression
 		public void testSimplifyFancyException() {
 			thrown.expect(IllegalArgumentException.class);
@@ -290,7 +523,28 @@ public class AssignmentTest {
 			thrown.expect(IllegalArgumentException.class);
 			LinkedBinaryTree<String> tree3=new LinkedBinaryTree<String>();
 			tree3=null;
-			LinkedBinaryTree<String> test3 = Assignment.simplifyFancy(tree3);	
+			LinkedBinaryTree<String> test3 = Assignment.simplifyFancy(tree3);
+		}
+		// simplifying while parsing gives the same tree as simplifyFancy
+		@Test(timeout = 1000)
+		public void testPrefix2treeSimplify() {
+			String[] expressions = { "7", "x", "+ 3 4", "* 2 - 8 3", "- * 1 x x", "+ x * 0 y",
+					"- + 2 x + 2 x", "* + 1 0 x", "+ 007 0", "- -0 -0", "* 2 + x 3",
+					"+ * 2 3 - y * 4 5", "- - 1 2 - 1 2", "* + x 0 1" };
+			for (String expression : expressions) {
+				LinkedBinaryTree<String> expected = Assignment.simplifyFancy(Assignment.prefix2tree(expression));
+				LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression, true);
+				assertTrue(expression, Assignment.equals(expected, tree));
+				assertTrue(Assignment.isArithmeticExpression(tree));
+			}
+			assertEquals("+ x 9", Assignment.tree2prefix(Assignment.prefix2tree("+ x * 3 3", true)));
+			assertEquals("* 3 3", Assignment.tree2prefix(Assignment.prefix2tree("* 3 3", false)));
+
+			String chain = "+ 1 ".repeat(100000);
+			assertEquals("100000", Assignment.tree2prefix(Assignment.prefix2tree(chain + "0", true)));
+
+			thrown.expect(IllegalArgumentException.class);
+			Assignment.prefix2tree("+ 1 * 2", true);
 		}
 //Tests for substitute
 		@Test(timeout = 100)
@@ -410,8 +664,108 @@ public class AssignmentTest {
 			tree2.addRight(tree2.right(tree2.root()), "c");
 			assertTrue(Assignment.isArithmeticExpression(tree2));
 			
+			LinkedBinaryTree<String> tree3 = operandWithChildren();
+			assertFalse(Assignment.isArithmeticExpression(tree3));
 		}
 		
+		// evaluating directly agrees with substituting and simplifying
+		@Test(timeout = 2000)
+		public void testEvaluate() {
+			HashMap<String, Integer> map = new HashMap<String, Integer>();
+			map.put("a", 3);
+			map.put("b", 4);
+			map.put("c", 7);
+			map.put("d", -1);
+			Bindings bindings = Bindings.of(map);
+			String[] expressions = { "+ * a b * d - c c", "- a * b - c 10", "42", "d", "* + a 1 - 0 + b 1" };
+			for (String expression : expressions) {
+				LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+				String expected = Assignment.tree2prefix(Assignment.simplify(Assignment.substitute(tree, map)));
+				assertEquals(expression, expected, Long.toString(Assignment.evaluate(tree, bindings)));
+				assertEquals(expression, expected,
+						Long.toString(Assignment.evaluate(ArrayExpressionTree.parse(expression), bindings)));
+			}
+			bindings.set("big", 1L << 40);
+			assertEquals(1L << 41, Assignment.evaluate(Assignment.prefix2tree("* big 2"), bindings));
+
+			// a deep chain is walked without recursion
+			LinkedBinaryTree<String> deep = leftChain("+", "1", 100000, "a");
+			assertEquals(100003, Assignment.evaluate(deep, bindings));
+
+			try {
+				Assignment.evaluate(Assignment.prefix2tree("* big * big big"), bindings);
+				fail();
+			}
+			catch (ArithmeticException e) {
+			}
+			try {
+				Assignment.evaluate(operandWithChildren(), Bindings.of(map));
+				fail();
+			}
+			catch (IllegalArgumentException e) {
+			}
+			thrown.expect(IllegalArgumentException.class);
+			Assignment.evaluate(Assignment.prefix2tree("+ a e"), bindings);
+		}
+
+		// simplifying on a pool gives the same tree as simplifying sequentially
+		@Test(timeout = 10000)
+		public void testParallelSimplify() {
+			// a complete tree with 2^17 leaves, numbered as in a heap
+			String[] leaves = { "x", "0", "1", "y", "7", "x", "2" };
+			StringBuilder prefix = new StringBuilder();
+			ArrayDeque<Integer> walk = new ArrayDeque<Integer>();
+			walk.push(1);
+			while (!walk.isEmpty()) {
+				int k = walk.pop();
+				if (k < 1 << 17) {
+					prefix.append("+-*".charAt(k % 3)).append(' ');
+					walk.push(2 * k + 1);
+					walk.push(2 * k);
+				}
+				else {
+					prefix.append(leaves[k % leaves.length]).append(' ');
+				}
+			}
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(prefix.toString());
+			// the same tree in a plain LinkedBinaryTree, with no cached sizes
+			LinkedBinaryTree<String> plain = new LinkedBinaryTree<String>();
+			ArrayDeque<Position<String>> from = new ArrayDeque<Position<String>>();
+			ArrayDeque<Position<String>> to = new ArrayDeque<Position<String>>();
+			from.push(tree.root());
+			to.push(plain.addRoot(tree.root().getElement()));
+			while (!from.isEmpty()) {
+				Position<String> f = from.pop();
+				Position<String> t = to.pop();
+				if (tree.isInternal(f)) {
+					from.push(tree.right(f));
+					to.push(plain.addRight(t, tree.right(f).getElement()));
+					from.push(tree.left(f));
+					to.push(plain.addLeft(t, tree.left(f).getElement()));
+				}
+			}
+			ForkJoinPool pool = new ForkJoinPool(4);
+			try {
+				for (NumericMode mode : NumericMode.values()) {
+					assertTrue(Assignment.equals(Assignment.simplify(tree, mode), Assignment.simplify(tree, mode, pool)));
+					assertTrue(Assignment.equals(Assignment.simplifyFancy(tree, mode),
+							Assignment.simplifyFancy(tree, mode, pool)));
+					assertTrue(Assignment.equals(Assignment.simplifyFancy(tree, mode),
+							Assignment.simplifyFancy(plain, mode, pool)));
+				}
+
+				// a deep chain is not split, and does not overflow the stack
+				LinkedBinaryTree<String> deep = leftChain("*", "1", 100000, "x");
+				assertEquals("x", Assignment.tree2prefix(Assignment.simplifyFancy(deep, NumericMode.INT, pool)));
+
+				thrown.expect(IllegalArgumentException.class);
+				Assignment.simplify(tree, NumericMode.INT, null);
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+
 //Complicated Mixed Function test
 		@Test(timeout = 100) // mixed simplifyFancy,prefix2tree and substitute 
 		public void testMixed1() {
@@ -0,0 +1,461 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+import textbook.BinaryTree;
+
+/**
+ * Evaluates one expression for many rows of variable values at once.
+ *
+ * The values of each variable are given as a column, one long per row, and
+ * the results are returned as a column too. Rows are processed in blocks:
+ * for each block, the postfix code of the expression is run once, but every
+ * instruction works on a whole block of values in a simple loop, which the
+ * JVM can compile to vector instructions. There is one temporary block per
+ * level of the stack: a variable copies its block of the column there (so
+ * every loop runs over whole arrays from index 0, which the JVM vectorizes
+ * more readily than loops at different offsets), and a literal stays a
+ * single number rather than being repeated across a block.
+ *
+ * Arithmetic is exact, as in CompiledExpression: each loop keeps a running
+ * overflow flag rather than checking every row, and fails after the loop if
+ * any row overflowed.
+ *
+ * When VectorKernels, in the separate vector source directory, has been
+ * compiled and the jdk.incubator.vector module is present (run with
+ * --add-modules jdk.incubator.vector), an evaluator can be asked to use loops
+ * written with LongVector instead; otherwise it falls back to the scalar
+ * loops, which are all the main source directory needs. Once fully compiled
+ * the vector loops are faster, but on Java 17 a vector loop that is not yet
+ * compiled by C2 boxes every vector and is many times slower than the scalar
+ * loop, so they are not used by default.
+ *
+ * Example: for "+ * a 3 b" with a = {1, 2} and b = {10, 20} the result is
+ * {13, 26}.
+ */
+public final class BatchEvaluator {
+
+	/** The number of rows processed together. */
+	public static final int BLOCK = 1024;
+
+	// x + INT_BIAS is in [0, 2^32) exactly when x fits in an int
+	static final long INT_BIAS = 1L << 31;
+
+	private static final Kernels SCALAR = new Kernels();
+	// null unless the jdk.incubator.vector module is present
+	private static final Kernels VECTOR = loadVectorKernels();
+
+	private final CompiledExpression expression;
+	private final Kernels kernels;
+
+	/**
+	 * Constructs a batch evaluator for a compiled expression, using the
+	 * scalar loops
+	 *
+	 * @param expression
+	 *            - the expression to evaluate
+	 * @throws IllegalArgumentException
+	 *             if expression is null
+	 */
+	public BatchEvaluator(CompiledExpression expression) throws IllegalArgumentException {
+		this(expression, false);
+	}
+
+	/**
+	 * Constructs a batch evaluator for a compiled expression
+	 *
+	 * @param expression
+	 *            - the expression to evaluate
+	 * @param vector
+	 *            - true to use the vector backend if it is available, false
+	 *            for the scalar loops
+	 * @throws IllegalArgumentException
+	 *             if expression is null
+	 */
+	public BatchEvaluator(CompiledExpression expression, boolean vector) throws IllegalArgumentException {
+		if (expression == null) {
+			throw new IllegalArgumentException("Expression was null");
+		}
+		this.expression = expression;
+		this.kernels = vector && VECTOR != null ? VECTOR : SCALAR;
+	}
+
+	/*
+	 * The vector backend needs the jdk.incubator.vector module, both to be
+	 * compiled and at run time, so it is built separately and only loaded by
+	 * name; without it the class is missing or fails to link
+	 */
+	private static Kernels loadVectorKernels() {
+		try {
+			return (Kernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the jdk.incubator.vector backend can be used
+	 */
+	public static boolean isVectorAvailable() {
+		return VECTOR != null;
+	}
+
+	/**
+	 * @return true if this evaluator uses the vector backend
+	 */
+	public boolean isVectorized() {
+		return kernels != SCALAR;
+	}
+
+	/**
+	 * Compiles a tree for batch evaluation
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return a batch evaluator for tree
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 * @throws ArithmeticException
+	 *             if a literal does not fit in a long
+	 */
+	public static BatchEvaluator compile(BinaryTree<String> tree) throws IllegalArgumentException, ArithmeticException {
+		return new BatchEvaluator(CompiledExpression.compile(tree));
+	}
+
+	/**
+	 * @return the compiled expression, which gives the slot of each variable
+	 */
+	public CompiledExpression expression() {
+		return expression;
+	}
+
+	/**
+	 * Evaluates the expression for every row
+	 *
+	 * @param columns
+	 *            - the values of each variable, by slot
+	 * @param rows
+	 *            - the number of rows
+	 * @return the value of the expression for each row
+	 * @throws IllegalArgumentException
+	 *             if rows is negative, or a column is missing or has fewer
+	 *             than rows values
+	 * @throws ArithmeticException
+	 *             if a result does not fit in a long
+	 */
+	public long[] evaluate(long[][] columns, int rows) throws IllegalArgumentException, ArithmeticException {
+		if (rows < 0) {
+			throw new IllegalArgumentException("Negative number of rows: " + rows);
+		}
+		long[] result = new long[rows];
+		evaluate(columns, result, 0, rows);
+		return result;
+	}
+
+	/**
+	 * Evaluates the expression for every row
+	 *
+	 * @param columns
+	 *            - the values of each variable, by name
+	 * @param rows
+	 *            - the number of rows
+	 * @return the value of the expression for each row
+	 * @throws IllegalArgumentException
+	 *             if columns is null, rows is negative, or a column is
+	 *             missing or has fewer than rows values
+	 * @throws ArithmeticException
+	 *             if a result does not fit in a long
+	 */
+	public long[] evaluate(HashMap<String, long[]> columns, int rows)
+			throws IllegalArgumentException, ArithmeticException {
+		if (columns == null) {
+			throw new IllegalArgumentException("Columns were null");
+		}
+		long[][] bySlot = new long[expression.variableCount()][];
+		for (int i = 0; i < bySlot.length; i++) {
+			bySlot[i] = columns.get(expression.variable(i));
+		}
+		return evaluate(bySlot, rows);
+	}
+
+	/**
+	 * Evaluates the expression for a range of rows
+	 *
+	 * @param columns
+	 *            - the values of each variable, by slot
+	 * @param result
+	 *            - where the value for each row is stored
+	 * @param from
+	 *            - the first row
+	 * @param to
+	 *            - the row after the last
+	 * @throws IllegalArgumentException
+	 *             if the range is not within result, or a column is missing
+	 *             or has fewer than to values
+	 * @throws ArithmeticException
+	 *             if a result does not fit in a long
+	 */
+	public void evaluate(long[][] columns, long[] result, int from, int to)
+			throws IllegalArgumentException, ArithmeticException {
+		if (result == null || from < 0 || from > to || to > result.length) {
+			throw new IllegalArgumentException("Rows " + from + " to " + to + " are not in the result");
+		}
+		int slots = expression.variableCount();
+		if (columns == null || columns.length < slots) {
+			throw new IllegalArgumentException("Expected columns for " + slots + " variables");
+		}
+		for (int i = 0; i < slots; i++) {
+			if (columns[i] == null || columns[i].length < to) {
+				throw new IllegalArgumentException("Too few values for " + expression.variable(i));
+			}
+		}
+		Blocks blocks = new Blocks(expression.maxStack(), Math.min(BLOCK, to - from), kernels);
+		for (int start = from; start < to; start += BLOCK) {
+			blocks.run(expression, columns, result, start, Math.min(BLOCK, to - start));
+		}
+	}
+
+	/**
+	 * The operand stack of one evaluation: each entry is either a single
+	 * number or a block of values
+	 */
+	private static final class Blocks {
+		// temporary blocks, one per stack level
+		private final long[][] temporary;
+		private final long[][] arrays;
+		private final boolean[] scalar;
+		private final long[] values;
+		private final Kernels kernels;
+
+		Blocks(int depth, int size, Kernels kernels) {
+			this.kernels = kernels;
+			temporary = new long[depth][size];
+			arrays = new long[depth][];
+			scalar = new boolean[depth];
+			values = new long[depth];
+		}
+
+		void run(CompiledExpression expression, long[][] columns, long[] result, int start, int n) {
+			long[] constants = expression.constants();
+			int top = 0;
+			for (int instruction : expression.code()) {
+				int operand = instruction >>> CompiledExpression.OPCODE_BITS;
+				int op = instruction & CompiledExpression.OPCODE_MASK;
+				if (op == CompiledExpression.CONST) {
+					scalar[top] = true;
+					values[top++] = constants[operand];
+				}
+				else if (op == CompiledExpression.LOAD) {
+					scalar[top] = false;
+					arrays[top] = temporary[top];
+					System.arraycopy(columns[operand], start, temporary[top++], 0, n);
+				}
+				else {
+					top--;
+					apply(op, top - 1, top, n);
+				}
+			}
+			if (scalar[0]) {
+				Arrays.fill(result, start, start + n, values[0]);
+			}
+			else {
+				System.arraycopy(arrays[0], 0, result, start, n);
+			}
+		}
+
+		// applies an operator to entries a and b, leaving the result in a
+		private void apply(int op, int a, int b, int n) {
+			if (scalar[a] && scalar[b]) {
+				values[a] = scalar(op, values[a], values[b]);
+				return;
+			}
+			long[] out = temporary[a];
+			if (scalar[b]) {
+				switch (op) {
+				case CompiledExpression.ADD:
+					kernels.addScalar(arrays[a], values[b], out, n);
+					break;
+				case CompiledExpression.SUB:
+					kernels.subtractScalar(arrays[a], values[b], out, n);
+					break;
+				default:
+					kernels.multiplyScalar(arrays[a], values[b], out, n);
+				}
+			}
+			else if (scalar[a]) {
+				switch (op) {
+				case CompiledExpression.ADD:
+					kernels.addScalar(arrays[b], values[a], out, n);
+					break;
+				case CompiledExpression.SUB:
+					kernels.subtractFromScalar(values[a], arrays[b], out, n);
+					break;
+				default:
+					kernels.multiplyScalar(arrays[b], values[a], out, n);
+				}
+			}
+			else {
+				switch (op) {
+				case CompiledExpression.ADD:
+					kernels.add(arrays[a], arrays[b], out, n);
+					break;
+				case CompiledExpression.SUB:
+					kernels.subtract(arrays[a], arrays[b], out, n);
+					break;
+				default:
+					kernels.multiply(arrays[a], arrays[b], out, n);
+				}
+			}
+			scalar[a] = false;
+			arrays[a] = out;
+		}
+	}
+
+	private static long scalar(int op, long a, long b) {
+		switch (op) {
+		case CompiledExpression.ADD:
+			return Math.addExact(a, b);
+		case CompiledExpression.SUB:
+			return Math.subtractExact(a, b);
+		default:
+			return Math.multiplyExact(a, b);
+		}
+	}
+
+	/**
+	 * The loops over a block, one per operator and combination of block and
+	 * number operands. Each throws ArithmeticException if any row
+	 * overflows. These are written for the JVM to vectorize; VectorKernels
+	 * replaces them with explicit vector code where that is available.
+	 */
+	static class Kernels {
+		/*
+		 * overflow has its sign bit set (for + and -) or is non-zero (for *)
+		 * if any row overflowed, the same tests as Math.addExact,
+		 * subtractExact and multiplyExact. The test for * does not
+		 * vectorize, so a block whose operands all fit in an int, whose
+		 * products cannot overflow, is first picked out by a loop that does.
+		 */
+
+		void add(long[] a, long[] b, long[] out, int n) {
+			long overflow = 0;
+			for (int k = 0; k < n; k++) {
+				long x = a[k];
+				long y = b[k];
+				long r = x + y;
+				overflow |= (x ^ r) & (y ^ r);
+				out[k] = r;
+			}
+			checkSign(overflow);
+		}
+
+		void addScalar(long[] a, long y, long[] out, int n) {
+			long overflow = 0;
+			for (int k = 0; k < n; k++) {
+				long x = a[k];
+				long r = x + y;
+				overflow |= (x ^ r) & (y ^ r);
+				out[k] = r;
+			}
+			checkSign(overflow);
+		}
+
+		void subtract(long[] a, long[] b, long[] out, int n) {
+			long overflow = 0;
+			for (int k = 0; k < n; k++) {
+				long x = a[k];
+				long y = b[k];
+				long r = x - y;
+				overflow |= (x ^ y) & (x ^ r);
+				out[k] = r;
+			}
+			checkSign(overflow);
+		}
+
+		void subtractScalar(long[] a, long y, long[] out, int n) {
+			long overflow = 0;
+			for (int k = 0; k < n; k++) {
+				long x = a[k];
+				long r = x - y;
+				overflow |= (x ^ y) & (x ^ r);
+				out[k] = r;
+			}
+			checkSign(overflow);
+		}
+
+		void subtractFromScalar(long x, long[] b, long[] out, int n) {
+			long overflow = 0;
+			for (int k = 0; k < n; k++) {
+				long y = b[k];
+				long r = x - y;
+				overflow |= (x ^ y) & (x ^ r);
+				out[k] = r;
+			}
+			checkSign(overflow);
+		}
+
+		void multiply(long[] a, long[] b, long[] out, int n) {
+			long wide = 0;
+			for (int k = 0; k < n; k++) {
+				wide |= (a[k] + INT_BIAS | b[k] + INT_BIAS) >>> 32;
+			}
+			if (wide == 0) {
+				for (int k = 0; k < n; k++) {
+					out[k] = a[k] * b[k];
+				}
+				return;
+			}
+			multiplyExact(a, b, out, n);
+		}
+
+		// the exact test, for blocks with operands that do not fit in an int
+		final void multiplyExact(long[] a, long[] b, long[] out, int n) {
+			long overflow = 0;
+			for (int k = 0; k < n; k++) {
+				long x = a[k];
+				long y = b[k];
+				long r = x * y;
+				overflow |= Math.multiplyHigh(x, y) ^ (r >> 63);
+				out[k] = r;
+			}
+			checkNonZero(overflow);
+		}
+
+		void multiplyScalar(long[] a, long y, long[] out, int n) {
+			long wide = (y + INT_BIAS) >>> 32;
+			for (int k = 0; k < n; k++) {
+				wide |= (a[k] + INT_BIAS) >>> 32;
+			}
+			if (wide == 0) {
+				for (int k = 0; k < n; k++) {
+					out[k] = a[k] * y;
+				}
+				return;
+			}
+			multiplyExact(a, y, out, n);
+		}
+
+		final void multiplyExact(long[] a, long y, long[] out, int n) {
+			long overflow = 0;
+			for (int k = 0; k < n; k++) {
+				long x = a[k];
+				long r = x * y;
+				overflow |= Math.multiplyHigh(x, y) ^ (r >> 63);
+				out[k] = r;
+			}
+			checkNonZero(overflow);
+		}
+
+		static void checkSign(long overflow) {
+			if (overflow < 0) {
+				throw new ArithmeticException("long overflow");
+			}
+		}
+
+		static void checkNonZero(long overflow) {
+			if (overflow != 0) {
+				throw new ArithmeticException("long overflow");
+			}
+		}
+	}
+}
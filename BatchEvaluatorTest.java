@@ -0,0 +1,100 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class BatchEvaluatorTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// evaluating a column of rows gives the value of each row
+	@Test(timeout = 5000)
+	public void testBatchEvaluator() {
+		BatchEvaluator batch = BatchEvaluator.compile(Assignment.prefix2tree("+ * a 3 b"));
+		HashMap<String, long[]> columns = new HashMap<String, long[]>();
+		columns.put("a", new long[] { 1, 2 });
+		columns.put("b", new long[] { 10, 20 });
+		assertTrue(Arrays.equals(new long[] { 13, 26 }, batch.evaluate(columns, 2)));
+
+		// every combination of numbers and columns, over several blocks
+		String[] expressions = { "- * a b - 7 c", "- 5 * a 3", "* 2 - a 4", "+ * 2 3 - 1 c", "c",
+				"- - 0 c + a * b 1000003" };
+		int rows = 3 * BatchEvaluator.BLOCK + 17;
+		long[][] values = new long[3][rows];
+		for (int i = 0; i < rows; i++) {
+			values[0][i] = i - 1000;
+			values[1][i] = 31 * i % 977;
+			values[2][i] = -i;
+		}
+		for (String expression : expressions) {
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+			batch = BatchEvaluator.compile(tree);
+			long[][] bySlot = new long[batch.expression().variableCount()][];
+			for (int s = 0; s < bySlot.length; s++) {
+				bySlot[s] = values[batch.expression().variable(s).charAt(0) - 'a'];
+			}
+			long[] result = batch.evaluate(bySlot, rows);
+			long[] row = new long[bySlot.length];
+			for (int i = 0; i < rows; i++) {
+				for (int s = 0; s < row.length; s++) {
+					row[s] = bySlot[s][i];
+				}
+				assertEquals(expression, batch.expression().evaluate(row), result[i]);
+			}
+		}
+
+		// one overflowing row is found
+		long[] a = new long[rows];
+		a[rows - 1] = Long.MAX_VALUE / 2 + 1;
+		batch = BatchEvaluator.compile(Assignment.prefix2tree("* a 2"));
+		try {
+			batch.evaluate(new long[][] { a }, rows);
+			fail();
+		}
+		catch (ArithmeticException e) {
+		}
+		thrown.expect(IllegalArgumentException.class);
+		batch.evaluate(new long[][] { a }, rows + 1);
+	}
+
+	// the vector backend, when present, agrees with the scalar loops
+	@Test(timeout = 5000)
+	public void testVectorBatchEvaluator() {
+		String[] expressions = { "- * a b - 7 c", "- 5 * a 3", "* 2 - a 4", "+ * a c - 1 c",
+				"* - a b * c 1000003" };
+		int rows = 2 * BatchEvaluator.BLOCK + 13;
+		long[][] columns = new long[3][rows];
+		for (int i = 0; i < rows; i++) {
+			columns[0][i] = i - 1000;
+			columns[1][i] = 31 * i % 977;
+			columns[2][i] = (i % 2 == 0 ? 1L : -1L) << (i % 24);
+		}
+		for (String expression : expressions) {
+			CompiledExpression compiled = CompiledExpression.compile(Assignment.prefix2tree(expression));
+			BatchEvaluator vector = new BatchEvaluator(compiled, true);
+			assertEquals(BatchEvaluator.isVectorAvailable(), vector.isVectorized());
+			assertFalse(new BatchEvaluator(compiled, false).isVectorized());
+			long[][] bySlot = new long[compiled.variableCount()][];
+			for (int s = 0; s < bySlot.length; s++) {
+				bySlot[s] = columns[compiled.variable(s).charAt(0) - 'a'];
+			}
+			assertTrue(expression, Arrays.equals(new BatchEvaluator(compiled, false).evaluate(bySlot, rows),
+					vector.evaluate(bySlot, rows)));
+		}
+
+		// an overflow in the rows after the last whole vector is found
+		long[] a = new long[rows];
+		a[rows - 1] = Long.MIN_VALUE;
+		BatchEvaluator batch = new BatchEvaluator(CompiledExpression.compile(Assignment.prefix2tree("- a 1")), true);
+		thrown.expect(ArithmeticException.class);
+		batch.evaluate(new long[][] { a }, rows);
+	}
+}
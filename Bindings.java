@@ -0,0 +1,127 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Values for the variables of an expression, for Assignment.evaluate.
+ *
+ * Variables are interned terms, and each interned variable has a small
+ * number of its own, so the values are kept in a long array indexed by that
+ * number rather than in a map of strings to boxed integers. Looking up a
+ * variable while evaluating therefore costs one array access and allocates
+ * nothing.
+ *
+ * Symbol numbers are given out by one table for the whole program, and the
+ * number of a variable that is no longer used anywhere is reused, so the
+ * arrays are as long as the largest number among the variables in use when
+ * those bound were first read. Bindings keep the variables they bind, and a
+ * number only gives a value if it belongs to the same variable, so a number
+ * that is reused never picks up a value bound for an earlier variable.
+ * Where many different names are in use at once, a CompiledExpression,
+ * which numbers the variables of its own expression from 0, evaluates from
+ * an array of just those values.
+ *
+ * Example: new Bindings().set("x", 3).set("y", 4) binds x to 3 and y to 4.
+ */
+public final class Bindings {
+
+	private long[] values = new long[16];
+	// the variable bound at each symbol, or null
+	private Term[] variables = new Term[16];
+
+	/** Constructs bindings with no variables bound. */
+	public Bindings() {
+	}
+
+	/**
+	 * Copies the values of a map such as the one given to
+	 * Assignment.substitute
+	 *
+	 * @param map
+	 *            - a map of variable labels to integer values
+	 * @return bindings holding the same values
+	 * @throws IllegalArgumentException
+	 *             if map is null, or holds a null value or a label that is not
+	 *             a variable name
+	 */
+	public static Bindings of(HashMap<String, Integer> map) throws IllegalArgumentException {
+		if (map == null) {
+			throw new IllegalArgumentException("Map was null");
+		}
+		Bindings bindings = new Bindings();
+		for (Map.Entry<String, Integer> entry : map.entrySet()) {
+			if (entry.getValue() == null) {
+				throw new IllegalArgumentException("No value for variable " + entry.getKey());
+			}
+			bindings.set(entry.getKey(), entry.getValue());
+		}
+		return bindings;
+	}
+
+	/**
+	 * Binds a variable, replacing any value it had
+	 *
+	 * @param variable
+	 *            - the name of a variable
+	 * @param value
+	 *            - its value
+	 * @return these bindings
+	 * @throws IllegalArgumentException
+	 *             if variable is null, or is an operator or an integer
+	 */
+	public Bindings set(String variable, long value) throws IllegalArgumentException {
+		return set(Term.variable(variable), value);
+	}
+
+	/**
+	 * Binds a variable, replacing any value it had
+	 *
+	 * @param variable
+	 *            - a variable term
+	 * @param value
+	 *            - its value
+	 * @return these bindings
+	 * @throws IllegalArgumentException
+	 *             if variable is null or not a variable
+	 */
+	public Bindings set(Term variable, long value) throws IllegalArgumentException {
+		if (variable == null || !variable.isVariable()) {
+			throw new IllegalArgumentException("Not a variable: " + variable);
+		}
+		int s = variable.symbol();
+		if (s >= values.length) {
+			values = Arrays.copyOf(values, Math.max(2 * values.length, s + 1));
+			variables = Arrays.copyOf(variables, values.length);
+		}
+		values[s] = value;
+		variables[s] = variable;
+		return this;
+	}
+
+	/**
+	 * @param variable
+	 *            - a variable term
+	 * @return true if variable has a value
+	 */
+	public boolean isBound(Term variable) {
+		if (variable == null || !variable.isVariable()) {
+			return false;
+		}
+		int s = variable.symbol();
+		return s < variables.length && variables[s] == variable;
+	}
+
+	/**
+	 * @param variable
+	 *            - a variable term
+	 * @return the value of variable
+	 * @throws IllegalArgumentException
+	 *             if variable has no value
+	 */
+	public long get(Term variable) throws IllegalArgumentException {
+		if (!isBound(variable)) {
+			throw new IllegalArgumentException("No value for variable " + variable);
+		}
+		return values[variable.symbol()];
+	}
+}
@@ -0,0 +1,58 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class BindingsTest {
+
+	// variables first read by several threads at once have their own symbols, and can all be bound
+	@Test(timeout = 10000)
+	public void testBindingsConcurrentSymbols() {
+		ArrayList<String> expressions = new ArrayList<String>();
+		for (int i = 0; i < 4000; i++) {
+			expressions.add("+ fresh" + i + " * 2 fresh" + (i + 1));
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			ExpressionBatch.run(expressions, pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+		Bindings bindings = new Bindings();
+		for (int i = 0; i <= 4000; i++) {
+			bindings.set("fresh" + i, i);
+		}
+		for (int i = 0; i < 4000; i++) {
+			assertEquals(3 * i + 2, Assignment.evaluate(Assignment.prefix2tree(expressions.get(i)), bindings));
+		}
+	}
+
+	// variables that are no longer used are collected, and their numbers go to new ones
+	@Test(timeout = 60000)
+	public void testSymbolsReused() {
+		Bindings bindings = new Bindings().set("kept", 7);
+		Term kept = Term.variable("kept");
+		// new numbers are larger than every number given before, so a
+		// later round reuses one if it gets a number of the first round's
+		int firstRound = -1;
+		boolean reused = false;
+		for (int round = 0; round < 100 && !reused; round++) {
+			for (int i = 0; i < 10000; i++) {
+				int symbol = Term.variable("generated" + round + "_" + i).symbol();
+				if (round == 0) {
+					firstRound = Math.max(firstRound, symbol);
+				}
+				else if (symbol <= firstRound) {
+					reused = true;
+				}
+			}
+			System.gc();
+		}
+		assertTrue(reused);
+		assertTrue(kept == Term.variable("kept"));
+		assertEquals(7, bindings.get(kept));
+	}
+}
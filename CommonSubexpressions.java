@@ -0,0 +1,259 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import textbook.BinaryTree;
+import textbook.LinkedBinaryTree;
+
+/**
+ * An arithmetic expression with its common subexpressions shared.
+ *
+ * The expression is interned into an ExpressionDag, so every repeated
+ * subtree (detected by its structural hash) becomes a reference to a single
+ * node. The distinct nodes are kept in an order where operands come before
+ * the operators that use them, with a count of how often each is used, so
+ * the expression can be evaluated computing each distinct subexpression once,
+ * and written out with each repeated subexpression named and written once.
+ *
+ * Example: "* + * x y 1 + * x y 1" is written as
+ * "let $1 = + * x y 1 in * $1 $1".
+ */
+public final class CommonSubexpressions {
+
+	private static final String NAME_PREFIX = "$";
+
+	private final ExpressionDag.Node root;
+	private final long treeSize;
+	// distinct nodes, operands before operators; the root is last
+	private final ExpressionDag.Node[] order;
+	// for each node of order, the indices of its operands (-1 for leaves)
+	private final int[] leftIndex;
+	private final int[] rightIndex;
+	// for each node of order, the number of references to it
+	private final int[] uses;
+
+	private CommonSubexpressions(ExpressionDag.Node root) {
+		this.root = root;
+		this.treeSize = root.treeSize();
+		// post-order walk of the DAG, visiting each distinct node once
+		HashMap<ExpressionDag.Node, Integer> index = new HashMap<ExpressionDag.Node, Integer>();
+		ExpressionDag.Node[] nodes = new ExpressionDag.Node[16];
+		int count = 0;
+		ArrayDeque<ExpressionDag.Node> walk = new ArrayDeque<ExpressionDag.Node>();
+		walk.push(root);
+		while (!walk.isEmpty()) {
+			ExpressionDag.Node n = walk.peek();
+			if (index.containsKey(n)) {
+				walk.pop();
+			}
+			else if (!n.isLeaf() && !index.containsKey(n.left())) {
+				walk.push(n.left());
+			}
+			else if (!n.isLeaf() && !index.containsKey(n.right())) {
+				walk.push(n.right());
+			}
+			else {
+				walk.pop();
+				if (count == nodes.length) {
+					nodes = Arrays.copyOf(nodes, 2 * count);
+				}
+				index.put(n, count);
+				nodes[count++] = n;
+			}
+		}
+		order = Arrays.copyOf(nodes, count);
+		leftIndex = new int[count];
+		rightIndex = new int[count];
+		uses = new int[count];
+		uses[count - 1] = 1;
+		for (int i = 0; i < count; i++) {
+			ExpressionDag.Node n = order[i];
+			if (n.isLeaf()) {
+				leftIndex[i] = -1;
+				rightIndex[i] = -1;
+			}
+			else {
+				leftIndex[i] = index.get(n.left());
+				rightIndex[i] = index.get(n.right());
+				uses[leftIndex[i]]++;
+				uses[rightIndex[i]]++;
+			}
+		}
+	}
+
+	/**
+	 * Shares the common subexpressions of a tree
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return the expression with its repeated subtrees shared
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static CommonSubexpressions of(BinaryTree<String> tree) throws IllegalArgumentException {
+		return new CommonSubexpressions(new ExpressionDag().intern(tree));
+	}
+
+	/**
+	 * Shares the common subexpressions of an interned expression
+	 *
+	 * @param root
+	 *            - an expression interned by an ExpressionDag
+	 * @return the expression with its repeated subtrees shared
+	 * @throws IllegalArgumentException
+	 *             if root is null
+	 */
+	public static CommonSubexpressions of(ExpressionDag.Node root) throws IllegalArgumentException {
+		if (root == null) {
+			throw new IllegalArgumentException();
+		}
+		return new CommonSubexpressions(root);
+	}
+
+	/**
+	 * @return the shared root of the expression
+	 */
+	public ExpressionDag.Node root() {
+		return root;
+	}
+
+	/**
+	 * @return the number of nodes of the expression written out as a tree
+	 */
+	public long treeSize() {
+		return treeSize;
+	}
+
+	/**
+	 * @return the number of distinct subexpressions, i.e. nodes once repeated
+	 *         subtrees are shared
+	 */
+	public int size() {
+		return order.length;
+	}
+
+	/**
+	 * @return the number of operator subexpressions used more than once,
+	 *         which are the ones named by toLetPrefix
+	 */
+	public int sharedCount() {
+		int shared = 0;
+		for (int i = 0; i < order.length; i++) {
+			if (isShared(i)) {
+				shared++;
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * @return the expression as a tree, with every shared subexpression copied
+	 *         out again
+	 * @throws IllegalArgumentException
+	 *             if the tree would have more than Integer.MAX_VALUE positions
+	 */
+	public LinkedBinaryTree<String> toTree() throws IllegalArgumentException {
+		return ExpressionDag.toTree(root);
+	}
+
+	/**
+	 * Writes the expression in prefix notation, naming each operator
+	 * subexpression that is used more than once. Names are "$1", "$2" and so
+	 * on, and each is defined before it is used:
+	 * "let $1 = e1; $2 = e2 in body". An expression with nothing shared is
+	 * written exactly as by Assignment.tree2prefix.
+	 *
+	 * @return the compact prefix form of the expression
+	 */
+	public String toLetPrefix() {
+		int[] names = new int[order.length];
+		int named = 0;
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < order.length - 1; i++) {
+			if (isShared(i)) {
+				out.append(named == 0 ? "let " : "; ");
+				names[i] = ++named;
+				out.append(NAME_PREFIX).append(named).append(" = ");
+				writePrefix(out, i, names);
+			}
+		}
+		if (named > 0) {
+			out.append(" in ");
+		}
+		writePrefix(out, order.length - 1, names);
+		return out.toString();
+	}
+
+	// writes node i in prefix notation, using the names of shared operands
+	private void writePrefix(StringBuilder out, int i, int[] names) {
+		int start = out.length();
+		ArrayDeque<Integer> walk = new ArrayDeque<Integer>();
+		walk.push(i);
+		while (!walk.isEmpty()) {
+			int n = walk.pop();
+			if (out.length() > start) {
+				out.append(' ');
+			}
+			if (n != i && names[n] != 0) {
+				out.append(NAME_PREFIX).append(names[n]);
+			}
+			else {
+				out.append(order[n].term().text());
+				if (leftIndex[n] != -1) {
+					walk.push(rightIndex[n]);
+					walk.push(leftIndex[n]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the expression, computing each distinct subexpression once
+	 *
+	 * @param bindings
+	 *            - the value of every variable in the expression
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException
+	 *             if bindings is null or has no value for a variable
+	 * @throws ArithmeticException
+	 *             if a literal or a result does not fit in a long
+	 */
+	public long evaluate(Bindings bindings) throws IllegalArgumentException, ArithmeticException {
+		if (bindings == null) {
+			throw new IllegalArgumentException("Bindings were null");
+		}
+		long[] values = new long[order.length];
+		for (int i = 0; i < order.length; i++) {
+			Term term = order[i].term();
+			if (leftIndex[i] == -1) {
+				if (term.isLiteral()) {
+					if (!term.isLong()) {
+						throw new ArithmeticException("Literal does not fit in a long: " + term);
+					}
+					values[i] = term.longValue();
+				}
+				else {
+					values[i] = bindings.get(term);
+				}
+				continue;
+			}
+			long a = values[leftIndex[i]];
+			long b = values[rightIndex[i]];
+			switch (term.operator()) {
+			case '+':
+				values[i] = Math.addExact(a, b);
+				break;
+			case '-':
+				values[i] = Math.subtractExact(a, b);
+				break;
+			default:
+				values[i] = Math.multiplyExact(a, b);
+			}
+		}
+		return values[order.length - 1];
+	}
+
+	private boolean isShared(int i) {
+		return uses[i] > 1 && leftIndex[i] != -1;
+	}
+}
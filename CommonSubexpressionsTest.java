@@ -0,0 +1,47 @@
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class CommonSubexpressionsTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// repeated subtrees are shared, named once, and evaluated once
+	@Test(timeout = 2000)
+	public void testCommonSubexpressions() {
+		CommonSubexpressions cse = CommonSubexpressions.of(Assignment.prefix2tree("* + * x y 1 + * x y 1"));
+		assertEquals(11, cse.treeSize());
+		assertEquals(6, cse.size());
+		assertEquals(1, cse.sharedCount());
+		assertEquals("let $1 = + * x y 1 in * $1 $1", cse.toLetPrefix());
+		Bindings bindings = new Bindings().set("x", 3).set("y", 4);
+		assertEquals(169, cse.evaluate(bindings));
+		assertTrue(Assignment.equals(cse.toTree(), Assignment.prefix2tree("* + * x y 1 + * x y 1")));
+
+		cse = CommonSubexpressions.of(Assignment.prefix2tree("- * x y * y x"));
+		assertEquals(0, cse.sharedCount());
+		assertEquals("- * x y * y x", cse.toLetPrefix());
+
+		cse = CommonSubexpressions.of(Assignment.prefix2tree("+ * - x y - x y * * - x y - x y 2"));
+		assertEquals("let $1 = - x y; $2 = * $1 $1 in + $2 * $2 2", cse.toLetPrefix());
+		assertEquals(3, cse.evaluate(bindings));
+
+		// a doubling chain: exponentially many tree nodes, linear distinct ones
+		ExpressionDag dag = new ExpressionDag();
+		ExpressionDag.Node n = dag.leaf(Term.variable("x"));
+		for (int i = 0; i < 40; i++) {
+			n = dag.node(Term.PLUS, n, n);
+		}
+		cse = CommonSubexpressions.of(n);
+		assertEquals(41, cse.size());
+		assertEquals((1L << 41) - 1, cse.treeSize());
+		assertEquals(3L << 40, cse.evaluate(bindings));
+
+		thrown.expect(IllegalArgumentException.class);
+		cse.evaluate(new Bindings());
+	}
+}
@@ -0,0 +1,290 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+import textbook.BinaryTree;
+import textbook.Position;
+
+/**
+ * An arithmetic expression compiled to postfix code for a stack machine, for
+ * evaluating the same expression with many different variable values.
+ *
+ * Compiling walks the tree once. Each node becomes one instruction, stored in
+ * an int: the low bits are the opcode and the rest its operand. A literal
+ * pushes an entry of a table of long constants, a variable pushes the value
+ * in its slot, and an operator replaces the top two values by its result.
+ * Variables are numbered in the order they first appear, so evaluating looks
+ * them up in an array of values rather than by name, and walks an int array
+ * rather than the nodes of a tree.
+ *
+ * Example: "+ * a b a" compiles to "LOAD 0, LOAD 1, MUL, LOAD 0, ADD" with
+ * the variables a and b in slots 0 and 1.
+ *
+ * Arithmetic is exact: a result that does not fit in a long is an error. A
+ * compiled expression does not change, so it can be shared between threads.
+ */
+public final class CompiledExpression implements Evaluator {
+
+	// opcodes, in the low bits of an instruction
+	static final int CONST = 0;
+	static final int LOAD = 1;
+	static final int ADD = 2;
+	static final int SUB = 3;
+	static final int MUL = 4;
+	static final int OPCODE_BITS = 3;
+	static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+	private final int[] code;
+	private final long[] constants;
+	private final Term[] variables;
+	private final int maxStack;
+
+	private CompiledExpression(int[] code, long[] constants, Term[] variables, int maxStack) {
+		this.code = code;
+		this.constants = constants;
+		this.variables = variables;
+		this.maxStack = maxStack;
+	}
+
+	/**
+	 * Compiles a tree, without recursion
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return the compiled expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 * @throws ArithmeticException
+	 *             if a literal does not fit in a long
+	 */
+	public static CompiledExpression compile(BinaryTree<String> tree)
+			throws IllegalArgumentException, ArithmeticException {
+		if (!Assignment.isArithmeticExpression(tree)) {
+			throw new IllegalArgumentException();
+		}
+		int[] code = new int[tree.size()];
+		int length = 0;
+		long[] constants = new long[8];
+		int constantCount = 0;
+		HashMap<Term, Integer> slots = new HashMap<Term, Integer>();
+		Term[] variables = new Term[4];
+		int depth = 0;
+		int maxStack = 0;
+		// post-order walk over parent links: a node is emitted after both
+		// of its subtrees
+		Position<String> p = firstInPostorder(tree, tree.root());
+		while (true) {
+			Term term = Term.of(p);
+			// checked again here, since this code can end up as bytecode
+			if (term.isOperator() != tree.isInternal(p)) {
+				throw new IllegalArgumentException("Not an operator with two operands: " + term);
+			}
+			if (term.isOperator()) {
+				code[length++] = opcode(term.operator());
+				depth--;
+			}
+			else if (term.isVariable()) {
+				Integer slot = slots.get(term);
+				if (slot == null) {
+					slot = slots.size();
+					slots.put(term, slot);
+					if (slot == variables.length) {
+						variables = Arrays.copyOf(variables, 2 * slot);
+					}
+					variables[slot] = term;
+				}
+				code[length++] = slot << OPCODE_BITS | LOAD;
+				maxStack = Math.max(maxStack, ++depth);
+			}
+			else {
+				if (!term.isLong()) {
+					throw new ArithmeticException("Literal does not fit in a long: " + term);
+				}
+				if (constantCount == constants.length) {
+					constants = Arrays.copyOf(constants, 2 * constantCount);
+				}
+				constants[constantCount] = term.longValue();
+				code[length++] = constantCount++ << OPCODE_BITS | CONST;
+				maxStack = Math.max(maxStack, ++depth);
+			}
+			Position<String> parent = tree.parent(p);
+			if (parent == null) {
+				break;
+			}
+			if (p.equals(tree.left(parent))) {
+				p = firstInPostorder(tree, tree.right(parent));
+			}
+			else {
+				p = parent;
+			}
+		}
+		return new CompiledExpression(Arrays.copyOf(code, length), Arrays.copyOf(constants, constantCount),
+				Arrays.copyOf(variables, slots.size()), maxStack);
+	}
+
+	private static Position<String> firstInPostorder(BinaryTree<String> tree, Position<String> p) {
+		while (tree.isInternal(p)) {
+			p = tree.left(p);
+		}
+		return p;
+	}
+
+	private static int opcode(char operator) {
+		switch (operator) {
+		case '+':
+			return ADD;
+		case '-':
+			return SUB;
+		default:
+			return MUL;
+		}
+	}
+
+	/**
+	 * @return the number of instructions, which is the number of nodes of the
+	 *         compiled tree
+	 */
+	public int size() {
+		return code.length;
+	}
+
+	/**
+	 * @return the number of variables, and so of slots
+	 */
+	public int variableCount() {
+		return variables.length;
+	}
+
+	/**
+	 * @param slot
+	 *            - a slot number
+	 * @return the name of the variable in that slot
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no such slot
+	 */
+	public String variable(int slot) throws IndexOutOfBoundsException {
+		return variables[slot].text();
+	}
+
+	/**
+	 * @param variable
+	 *            - the name of a variable
+	 * @return the slot of that variable, or -1 if it does not appear in the
+	 *         expression
+	 */
+	public int slot(String variable) {
+		for (int i = 0; i < variables.length; i++) {
+			if (variables[i].text().equals(variable)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Evaluates the expression
+	 *
+	 * @param values
+	 *            - the value of each variable, by slot
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException
+	 *             if values is null or has fewer entries than there are
+	 *             slots
+	 * @throws ArithmeticException
+	 *             if a result does not fit in a long
+	 */
+	@Override
+	public long evaluate(long[] values) throws IllegalArgumentException, ArithmeticException {
+		if (values == null || values.length < variables.length) {
+			throw new IllegalArgumentException("Expected values for " + variables.length + " variables");
+		}
+		long[] stack = new long[maxStack];
+		int top = 0;
+		for (int instruction : code) {
+			switch (instruction & OPCODE_MASK) {
+			case CONST:
+				stack[top++] = constants[instruction >>> OPCODE_BITS];
+				break;
+			case LOAD:
+				stack[top++] = values[instruction >>> OPCODE_BITS];
+				break;
+			case ADD:
+				top--;
+				stack[top - 1] = Math.addExact(stack[top - 1], stack[top]);
+				break;
+			case SUB:
+				top--;
+				stack[top - 1] = Math.subtractExact(stack[top - 1], stack[top]);
+				break;
+			default:
+				top--;
+				stack[top - 1] = Math.multiplyExact(stack[top - 1], stack[top]);
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * Evaluates the expression
+	 *
+	 * @param bindings
+	 *            - the value of every variable in the expression
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException
+	 *             if bindings is null or has no value for a variable
+	 * @throws ArithmeticException
+	 *             if a result does not fit in a long
+	 */
+	public long evaluate(Bindings bindings) throws IllegalArgumentException, ArithmeticException {
+		if (bindings == null) {
+			throw new IllegalArgumentException("Bindings were null");
+		}
+		long[] values = new long[variables.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = bindings.get(variables[i]);
+		}
+		return evaluate(values);
+	}
+
+	/**
+	 * @return the code, one instruction per line, e.g. "LOAD 0 (a)"
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		for (int instruction : code) {
+			int operand = instruction >>> OPCODE_BITS;
+			switch (instruction & OPCODE_MASK) {
+			case CONST:
+				out.append("CONST ").append(constants[operand]);
+				break;
+			case LOAD:
+				out.append("LOAD ").append(operand).append(" (").append(variables[operand].text()).append(')');
+				break;
+			case ADD:
+				out.append("ADD");
+				break;
+			case SUB:
+				out.append("SUB");
+				break;
+			default:
+				out.append("MUL");
+			}
+			out.append('\n');
+		}
+		return out.toString();
+	}
+
+	// the compiled form, for the code generators that build on it
+
+	int[] code() {
+		return code;
+	}
+
+	long[] constants() {
+		return constants;
+	}
+
+	int maxStack() {
+		return maxStack;
+	}
+}
@@ -0,0 +1,49 @@
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class CompiledExpressionTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// compiled code gives the same values as walking the tree
+	@Test(timeout = 2000)
+	public void testCompiledExpression() {
+		CompiledExpression compiled = CompiledExpression.compile(Assignment.prefix2tree("+ * a b a"));
+		assertEquals("LOAD 0 (a)\nLOAD 1 (b)\nMUL\nLOAD 0 (a)\nADD\n", compiled.toString());
+		assertEquals(5, compiled.size());
+		assertEquals(2, compiled.variableCount());
+		assertEquals("b", compiled.variable(1));
+		assertEquals(-1, compiled.slot("c"));
+		assertEquals(15, compiled.evaluate(new long[] { 3, 4 }));
+
+		Bindings bindings = new Bindings().set("a", 3).set("b", 4).set("c", 7).set("d", -1);
+		String[] expressions = { "+ * a b * d - c c", "- a * b - c 10", "42", "d", "* + a 1 - 0 + b 1",
+				"- * 100000 100000 b" };
+		for (String expression : expressions) {
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+			assertEquals(expression, Assignment.evaluate(tree, bindings),
+					CompiledExpression.compile(tree).evaluate(bindings));
+		}
+
+		// a deep chain compiles and runs without recursion
+		compiled = CompiledExpression.compile(AssignmentTest.leftChain("-", "1", 100000, "a"));
+		assertEquals(200001, compiled.size());
+		assertEquals(-99997, compiled.evaluate(new long[] { 3 }));
+
+		try {
+			CompiledExpression.compile(AssignmentTest.operandWithChildren());
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+		thrown.expect(IllegalArgumentException.class);
+		compiled.evaluate(new long[0]);
+	}
+}
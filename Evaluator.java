@@ -0,0 +1,20 @@
+/**
+ * An arithmetic expression ready to be evaluated many times, with its
+ * variables numbered by slot as in CompiledExpression.
+ */
+public interface Evaluator {
+
+	/**
+	 * Evaluates the expression
+	 *
+	 * @param values
+	 *            - the value of each variable, by slot
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException
+	 *             if values is null or has fewer entries than there are
+	 *             slots
+	 * @throws ArithmeticException
+	 *             if a result does not fit in a long
+	 */
+	long evaluate(long[] values) throws IllegalArgumentException, ArithmeticException;
+}
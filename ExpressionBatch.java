@@ -0,0 +1,284 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Simplifies many independent expressions on a ForkJoinPool.
+ *
+ * Each expression, in prefix notation, is parsed with prefix2tree,
+ * simplified with simplifyFancy and written back with tree2prefix. The list
+ * of expressions is split in half repeatedly into tasks, down to chunks of a
+ * few hundred expressions, so idle threads steal work from busy ones however
+ * unevenly the sizes of the expressions are spread. Results are stored by
+ * index, so they are in the order of the input.
+ *
+ * An expression that fails in any stage, because it is not valid or holds
+ * a number that simplifyFancy cannot fold, gives a null result and is
+ * counted as a failure; the other expressions are not affected. Any other
+ * exception is a bug, and is thrown from run. The time spent in each stage
+ * is measured and added up over all the threads, giving the throughput of
+ * each stage, as well as the elapsed time of the whole batch.
+ *
+ * Example: ExpressionBatch.run(Arrays.asList("+ 1 2", "* x 1"), pool)
+ * .results() is ["3", "x"].
+ */
+public final class ExpressionBatch {
+
+	/**
+	 * The stages that each expression goes through
+	 */
+	public enum Stage {
+		PARSE, SIMPLIFY, PRINT
+	}
+
+	// expressions per task that is not split further
+	private static final int CHUNK = 256;
+
+	private final List<String> results;
+	private final long[] stageNanos;
+	private final long failures;
+	private final long elapsedNanos;
+
+	private ExpressionBatch(List<String> results, long[] stageNanos, long failures, long elapsedNanos) {
+		this.results = results;
+		this.stageNanos = stageNanos;
+		this.failures = failures;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Simplifies a list of expressions on the common pool
+	 *
+	 * @param expressions
+	 *            - expressions in prefix notation
+	 * @return the results and statistics of the batch
+	 * @throws IllegalArgumentException
+	 *             if expressions is null
+	 */
+	public static ExpressionBatch run(List<String> expressions) throws IllegalArgumentException {
+		return run(expressions, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Simplifies a stream of expressions on the common pool. The stream is
+	 * read to the end before any work starts, so that results can be put in
+	 * order.
+	 *
+	 * @param expressions
+	 *            - expressions in prefix notation
+	 * @return the results and statistics of the batch
+	 * @throws IllegalArgumentException
+	 *             if expressions is null
+	 */
+	public static ExpressionBatch run(Stream<String> expressions) throws IllegalArgumentException {
+		return run(expressions, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Simplifies a stream of expressions. The stream is read to the end
+	 * before any work starts, so that results can be put in order.
+	 *
+	 * @param expressions
+	 *            - expressions in prefix notation
+	 * @param pool
+	 *            - the pool to run on
+	 * @return the results and statistics of the batch
+	 * @throws IllegalArgumentException
+	 *             if expressions or pool is null
+	 */
+	public static ExpressionBatch run(Stream<String> expressions, ForkJoinPool pool) throws IllegalArgumentException {
+		if (expressions == null) {
+			throw new IllegalArgumentException("Expressions were null");
+		}
+		List<String> list = expressions.collect(Collectors.toList());
+		return run(list, pool);
+	}
+
+	/**
+	 * Simplifies a list of expressions
+	 *
+	 * @param expressions
+	 *            - expressions in prefix notation
+	 * @param pool
+	 *            - the pool to run on
+	 * @return the results and statistics of the batch
+	 * @throws IllegalArgumentException
+	 *             if expressions or pool is null
+	 */
+	public static ExpressionBatch run(List<String> expressions, ForkJoinPool pool) throws IllegalArgumentException {
+		if (expressions == null || pool == null) {
+			throw new IllegalArgumentException();
+		}
+		// tasks index the input, so it must allow random access
+		String[] input = expressions.toArray(new String[0]);
+		String[] output = new String[input.length];
+		LongAdder[] nanos = new LongAdder[Stage.values().length];
+		for (int i = 0; i < nanos.length; i++) {
+			nanos[i] = new LongAdder();
+		}
+		LongAdder failures = new LongAdder();
+		long start = System.nanoTime();
+		pool.invoke(new Chunk(input, output, 0, input.length, nanos, failures));
+		long elapsed = System.nanoTime() - start;
+		long[] stageNanos = new long[nanos.length];
+		for (int i = 0; i < nanos.length; i++) {
+			stageNanos[i] = nanos[i].sum();
+		}
+		return new ExpressionBatch(Collections.unmodifiableList(Arrays.asList(output)), stageNanos, failures.sum(),
+				elapsed);
+	}
+
+	/**
+	 * The expressions from one index to another: split in half, or processed
+	 * in order if there are few of them
+	 */
+	private static final class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String[] input;
+		private final String[] output;
+		private final int from;
+		private final int to;
+		private final LongAdder[] nanos;
+		private final LongAdder failures;
+
+		Chunk(String[] input, String[] output, int from, int to, LongAdder[] nanos, LongAdder failures) {
+			this.input = input;
+			this.output = output;
+			this.from = from;
+			this.to = to;
+			this.nanos = nanos;
+			this.failures = failures;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Chunk(input, output, from, middle, nanos, failures),
+						new Chunk(input, output, middle, to, nanos, failures));
+				return;
+			}
+			long parse = 0;
+			long simplify = 0;
+			long print = 0;
+			int failed = 0;
+			for (int i = from; i < to; i++) {
+				long t0 = System.nanoTime();
+				long t1 = t0;
+				long t2 = t0;
+				Stage stage = Stage.PARSE;
+				try {
+					LinkedBinaryTree<String> tree = Assignment.prefix2tree(input[i]);
+					t1 = System.nanoTime();
+					stage = Stage.SIMPLIFY;
+					tree = Assignment.simplifyFancy(tree);
+					t2 = System.nanoTime();
+					stage = Stage.PRINT;
+					output[i] = Assignment.tree2prefix(tree);
+				}
+				catch (IllegalArgumentException e) {
+					// not valid, or a number that cannot be folded (a
+					// NumberFormatException): only this expression fails
+					failed++;
+				}
+				long t3 = System.nanoTime();
+				// a stage that failed is timed up to the failure, and the
+				// stages after it take no time
+				if (stage == Stage.PARSE) {
+					t1 = t3;
+				}
+				if (stage != Stage.PRINT) {
+					t2 = t3;
+				}
+				parse += t1 - t0;
+				simplify += t2 - t1;
+				print += t3 - t2;
+			}
+			nanos[Stage.PARSE.ordinal()].add(parse);
+			nanos[Stage.SIMPLIFY.ordinal()].add(simplify);
+			nanos[Stage.PRINT.ordinal()].add(print);
+			failures.add(failed);
+		}
+	}
+
+	/**
+	 * @return the simplified expressions, in the order of the input, with
+	 *         null for each expression that failed
+	 */
+	public List<String> results() {
+		return results;
+	}
+
+	/**
+	 * @return the number of expressions
+	 */
+	public int size() {
+		return results.size();
+	}
+
+	/**
+	 * @return the number of expressions that failed: those that were not
+	 *         valid, and those holding numbers that could not be folded
+	 */
+	public long failures() {
+		return failures;
+	}
+
+	/**
+	 * @return the time from the start of the batch to its end
+	 */
+	public long elapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @param stage
+	 *            - a stage
+	 * @return the time spent in that stage, added up over all threads
+	 */
+	public long nanos(Stage stage) {
+		return stageNanos[stage.ordinal()];
+	}
+
+	/**
+	 * @param stage
+	 *            - a stage
+	 * @return the number of expressions one thread gets through that stage per
+	 *         second, or 0 if no time was measured
+	 */
+	public double throughput(Stage stage) {
+		long nanos = nanos(stage);
+		return nanos == 0 ? 0 : size() * 1e9 / nanos;
+	}
+
+	/**
+	 * @return the number of expressions processed per second of elapsed
+	 *         time, over all threads
+	 */
+	public double throughput() {
+		return elapsedNanos == 0 ? 0 : size() * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * @return a summary of the statistics, one stage per line
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("%d expressions, %d failed, %.1f ms, %.0f/s%n", size(), failures,
+				elapsedNanos / 1e6, throughput()));
+		for (Stage stage : Stage.values()) {
+			out.append(String.format("%-8s %10.1f ms %12.0f/s per thread%n", stage, nanos(stage) / 1e6,
+					throughput(stage)));
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,52 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ExpressionBatchTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// a batch gives the same results as one expression at a time, in order
+	@Test(timeout = 10000)
+	public void testExpressionBatch() {
+		ExpressionBatch batch = ExpressionBatch.run(Arrays.asList("+ 1 2", "* x 1"));
+		assertEquals(Arrays.asList("3", "x"), batch.results());
+
+		assertEquals(Arrays.asList("0"), ExpressionBatch.run(Arrays.asList("- x x").stream()).results());
+
+		// the last two fail to parse and to fold
+		String[] samples = { "- * 1 x x", "+ x * 0 y", "* 2 + x 3", "+ * 2 3 - y * 4 5", "- - 1 2 - 1 2", "+ x",
+				"+ 99999999999 1" };
+		ArrayList<String> expressions = new ArrayList<String>();
+		for (int i = 0; i < 5000; i++) {
+			expressions.add(samples[i % samples.length].replace("x", "x" + i));
+		}
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			batch = ExpressionBatch.run(expressions.stream(), pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+		assertEquals(5000, batch.size());
+		assertEquals(2 * (5000 / samples.length), batch.failures());
+		for (int i = 0; i < 5000; i++) {
+			String expected = i % samples.length >= 5 ? null
+					: Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree(expressions.get(i))));
+			assertEquals(expected, batch.results().get(i));
+		}
+		assertTrue(batch.nanos(ExpressionBatch.Stage.PARSE) > 0);
+		assertTrue(batch.throughput(ExpressionBatch.Stage.SIMPLIFY) > 0);
+
+		thrown.expect(IllegalArgumentException.class);
+		ExpressionBatch.run(expressions, null);
+	}
+}
@@ -0,0 +1,268 @@
+import java.util.ArrayDeque;
+
+import textbook.BinaryTree;
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * A hash-consing factory for arithmetic expressions.
+ *
+ * Every subexpression is interned in a table of shared nodes, so structurally
+ * identical subexpressions (the same elements in the same shape) are
+ * represented by one node no matter how often they occur. An expression is
+ * then a directed acyclic graph whose size is the number of distinct
+ * subexpressions rather than the size of its tree. Two nodes of the same
+ * factory represent identical expressions exactly when they are the same
+ * object.
+ *
+ * Example: interning "+ * x y * x y" creates only four nodes (x, y, * x y and
+ * the root), because both operands of the root are the same node.
+ *
+ * A factory is not safe for use by several threads at once.
+ */
+public class ExpressionDag {
+
+	/**
+	 * An interned subexpression. Nodes are immutable and can only be created
+	 * by a factory.
+	 */
+	public static final class Node {
+		private final Term term;
+		private final Node left;
+		private final Node right;
+		private final int hash;
+		// number of positions of the tree this node stands for
+		private final long treeSize;
+
+		private Node(Term term, Node left, Node right, int hash) {
+			this.term = term;
+			this.left = left;
+			this.right = right;
+			this.hash = hash;
+			long size = left == null ? 1 : 1 + left.treeSize + right.treeSize;
+			// heavily shared nodes can stand for astronomically large trees
+			this.treeSize = size < 0 ? Long.MAX_VALUE : size;
+		}
+
+		public Term term() {
+			return term;
+		}
+
+		public Node left() {
+			return left;
+		}
+
+		public Node right() {
+			return right;
+		}
+
+		public boolean isLeaf() {
+			return left == null;
+		}
+
+		/**
+		 * @return the number of nodes in the tree this subexpression expands
+		 *         to (which may be far more than the nodes it shares)
+		 */
+		public long treeSize() {
+			return treeSize;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private Node[] table = new Node[64];
+	private int count = 0;
+
+	/**
+	 * @return the number of distinct subexpressions interned so far
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the shared node for a leaf
+	 *
+	 * @param term
+	 *            - a literal or variable
+	 * @return the interned leaf
+	 * @throws IllegalArgumentException
+	 *             if term is null or an operator
+	 */
+	public Node leaf(Term term) throws IllegalArgumentException {
+		if (term == null || term.isOperator()) {
+			throw new IllegalArgumentException("A leaf must be a literal or a variable");
+		}
+		return intern(term, null, null);
+	}
+
+	/**
+	 * Returns the shared node for an operator applied to two interned
+	 * subexpressions
+	 *
+	 * @param operator
+	 *            - one of Term.PLUS, Term.MINUS or Term.TIMES
+	 * @param left
+	 *            - the left operand, interned by this factory
+	 * @param right
+	 *            - the right operand, interned by this factory
+	 * @return the interned node
+	 * @throws IllegalArgumentException
+	 *             if operator is not an operator or an operand is null
+	 */
+	public Node node(Term operator, Node left, Node right) throws IllegalArgumentException {
+		if (operator == null || !operator.isOperator() || left == null || right == null) {
+			throw new IllegalArgumentException("An operator needs two operands");
+		}
+		return intern(operator, left, right);
+	}
+
+	/**
+	 * Interns every subexpression of a tree. This runs in O(n) expected time
+	 * and does not recurse, so very deep trees can be interned.
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return the interned node for the whole expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public Node intern(BinaryTree<String> tree) throws IllegalArgumentException {
+		if (!Assignment.isArithmeticExpression(tree)) {
+			throw new IllegalArgumentException();
+		}
+		// post-order walk: positions still to finish, and finished operands
+		ArrayDeque<Position<String>> walk = new ArrayDeque<Position<String>>();
+		ArrayDeque<Node> operands = new ArrayDeque<Node>();
+		Position<String> p = tree.root();
+		Position<String> last = null;
+		while (p != null || !walk.isEmpty()) {
+			if (p != null) {
+				walk.push(p);
+				p = tree.left(p);
+			}
+			else {
+				Position<String> top = walk.peek();
+				Position<String> right = tree.right(top);
+				if (right != null && !right.equals(last)) {
+					p = right;
+				}
+				else {
+					walk.pop();
+					Term term = Term.of(top);
+					if (right == null) {
+						operands.push(leaf(term));
+					}
+					else {
+						Node r = operands.pop();
+						Node l = operands.pop();
+						operands.push(node(term, l, r));
+					}
+					last = top;
+				}
+			}
+		}
+		return operands.pop();
+	}
+
+	/**
+	 * Parses and interns an expression in prefix notation
+	 *
+	 * @param expression
+	 *            - an arithmetic expression in prefix notation
+	 * @return the interned node for the whole expression
+	 * @throws IllegalArgumentException
+	 *             if expression was not a valid expression
+	 */
+	public Node intern(String expression) throws IllegalArgumentException {
+		return intern(Assignment.prefix2tree(expression));
+	}
+
+	/**
+	 * Expands an interned expression back into a tree, making a separate copy
+	 * of every shared subexpression
+	 *
+	 * @param node
+	 *            - an interned expression
+	 * @return a tree representing the same expression
+	 * @throws IllegalArgumentException
+	 *             if node is null, or expands to more than Integer.MAX_VALUE
+	 *             positions
+	 */
+	public static LinkedBinaryTree<String> toTree(Node node) throws IllegalArgumentException {
+		if (node == null || node.treeSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException();
+		}
+		ExpressionTree tree = new ExpressionTree();
+		// pre-order walk, adding each node under the position of its parent
+		ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+		ArrayDeque<Position<String>> parents = new ArrayDeque<Position<String>>();
+		tree.addRoot(node.term);
+		if (!node.isLeaf()) {
+			nodes.push(node);
+			parents.push(tree.root());
+		}
+		while (!nodes.isEmpty()) {
+			Node n = nodes.pop();
+			Position<String> p = parents.pop();
+			Position<String> left = tree.addLeft(p, n.left.term);
+			Position<String> right = tree.addRight(p, n.right.term);
+			if (!n.right.isLeaf()) {
+				nodes.push(n.right);
+				parents.push(right);
+			}
+			if (!n.left.isLeaf()) {
+				nodes.push(n.left);
+				parents.push(left);
+			}
+		}
+		tree.markValidated();
+		return tree;
+	}
+
+	// finds or adds the node for (term, left, right)
+	private Node intern(Term term, Node left, Node right) {
+		int hash = term.hashCode();
+		if (left != null) {
+			// structural: children's hashes were computed the same way
+			hash = 31 * (31 * hash + left.hash) + right.hash;
+		}
+		// similar subexpressions get nearby sums, which linear probing (and
+		// HashMaps keyed by node) would cluster, so spread them first
+		hash *= 0x9E3779B9;
+		hash ^= hash >>> 16;
+		int mask = table.length - 1;
+		int i = hash & mask;
+		for (Node n = table[i]; n != null; n = table[i]) {
+			if (n.hash == hash && n.left == left && n.right == right && n.term.matches(term)) {
+				return n;
+			}
+			i = (i + 1) & mask;
+		}
+		Node n = new Node(term, left, right, hash);
+		table[i] = n;
+		if (2 * ++count > table.length) {
+			resize();
+		}
+		return n;
+	}
+
+	private void resize() {
+		Node[] old = table;
+		table = new Node[2 * old.length];
+		int mask = table.length - 1;
+		for (Node n : old) {
+			if (n != null) {
+				int i = n.hash & mask;
+				while (table[i] != null) {
+					i = (i + 1) & mask;
+				}
+				table[i] = n;
+			}
+		}
+	}
+}
@@ -0,0 +1,23 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import textbook.LinkedBinaryTree;
+
+public class ExpressionDagTest {
+
+	// repeated subexpressions are shared by the hash-consed DAG
+	@Test(timeout = 100)
+	public void testExpressionDag() {
+		ExpressionDag dag = new ExpressionDag();
+		ExpressionDag.Node sum = dag.intern("+ * x y * x y");
+		assertEquals(4, dag.size());
+		assertEquals(7, sum.treeSize());
+		assertSame(sum.left(), sum.right());
+		assertTrue(Assignment.equals(dag.intern("* x y"), sum.left()));
+		assertFalse(Assignment.equals(dag.intern("* y x"), sum.left()));
+		assertTrue(Assignment.equals(dag.intern(ArrayExpressionTree.parse("+ * x y * x y")), sum));
+		LinkedBinaryTree<String> tree = ExpressionDag.toTree(sum);
+		assertTrue(Assignment.equals(tree, Assignment.prefix2tree("+ * x y * x y")));
+	}
+}
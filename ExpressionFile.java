@@ -0,0 +1,360 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ObjLongConsumer;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * A file of arithmetic expressions in prefix notation, one per line, read
+ * through memory mapping.
+ *
+ * The file is mapped with FileChannel.map rather than read into Strings.
+ * Each task copies its part of the mapping with one bulk get into a byte
+ * array that its thread reuses, and finds lines and tokens in that array;
+ * no line is decoded into a String. Operators are recognised from a single
+ * byte, and only a literal or a variable that has not been seen before
+ * becomes a String. Bytes are read as ISO-8859-1, so expressions are
+ * expected to be ASCII.
+ *
+ * A single mapping holds at most 2GB, so a larger file is mapped as several
+ * regions, each ending at a line break. To parse in parallel each region is
+ * split in half repeatedly, always just after a line break, into tasks for
+ * a ForkJoinPool.
+ *
+ * Blank lines are skipped. A line that is not a valid expression is counted
+ * as a failure; the other lines are not affected.
+ *
+ * Example: for a file holding "+ 1 2\n* x y\n", forEach passes the trees for
+ * "+ 1 2" and "* x y" with the offsets 0 and 6.
+ */
+public final class ExpressionFile {
+
+	// the largest region a MappedByteBuffer can hold
+	private static final int MAX_REGION = Integer.MAX_VALUE;
+	// bytes per task that is not split further
+	private static final int CHUNK = 1 << 16;
+	// the array each thread copies its chunks into; taken while in use, so a
+	// task run by the same thread from inside an action gets its own
+	private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>();
+
+	private final MappedByteBuffer[] regions;
+	// the offset in the file of the start of each region
+	private final long[] starts;
+	private final long size;
+
+	private ExpressionFile(MappedByteBuffer[] regions, long[] starts, long size) {
+		this.regions = regions;
+		this.starts = starts;
+		this.size = size;
+	}
+
+	/**
+	 * Maps a file of expressions into memory. The file is not read until the
+	 * expressions are parsed.
+	 *
+	 * @param file
+	 *            - a file of expressions in prefix notation, one per line
+	 * @return the mapped file
+	 * @throws IllegalArgumentException
+	 *             if file is null
+	 * @throws IOException
+	 *             if the file cannot be mapped, or has a line longer than
+	 *             2GB
+	 */
+	public static ExpressionFile map(Path file) throws IllegalArgumentException, IOException {
+		return map(file, MAX_REGION);
+	}
+
+	// with a smaller limit on the size of a region, so that tests can use
+	// several regions without a file of several gigabytes
+	static ExpressionFile map(Path file, int maxRegion) throws IllegalArgumentException, IOException {
+		if (file == null) {
+			throw new IllegalArgumentException("File was null");
+		}
+		ArrayList<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+		ArrayList<Long> starts = new ArrayList<Long>();
+		// a mapping stays valid after its channel is closed
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long start = 0;
+			while (start < size) {
+				long length = Math.min(maxRegion, size - start);
+				MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+				if (start + length < size) {
+					// end the region after its last line break; the rest of
+					// the line is mapped again as the start of the next region
+					int end = (int) length;
+					while (end > 0 && region.get(end - 1) != '\n') {
+						end--;
+					}
+					if (end == 0) {
+						throw new IOException("Line at offset " + start + " is longer than " + maxRegion + " bytes");
+					}
+					length = end;
+					region = region.slice(0, end);
+				}
+				regions.add(region);
+				starts.add(start);
+				start += length;
+			}
+			long[] offsets = new long[starts.size()];
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = starts.get(i);
+			}
+			return new ExpressionFile(regions.toArray(new MappedByteBuffer[0]), offsets, size);
+		}
+	}
+
+	/**
+	 * @return the size of the file in bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of regions the file is mapped as
+	 */
+	public int regionCount() {
+		return regions.length;
+	}
+
+	/**
+	 * Parses every expression on the common pool
+	 *
+	 * @param action
+	 *            - called with each tree and the offset in the file of the
+	 *            line it was read from, from several threads at once and in
+	 *            no particular order
+	 * @return the number of lines that were not valid expressions
+	 * @throws IllegalArgumentException
+	 *             if action is null
+	 */
+	public long forEach(ObjLongConsumer<LinkedBinaryTree<String>> action) throws IllegalArgumentException {
+		return forEach(ForkJoinPool.commonPool(), action);
+	}
+
+	/**
+	 * Parses every expression
+	 *
+	 * @param pool
+	 *            - the pool to parse on
+	 * @param action
+	 *            - called with each tree and the offset in the file of the
+	 *            line it was read from, from several threads at once and in
+	 *            no particular order
+	 * @return the number of lines that were not valid expressions
+	 * @throws IllegalArgumentException
+	 *             if pool or action is null
+	 */
+	public long forEach(ForkJoinPool pool, ObjLongConsumer<LinkedBinaryTree<String>> action)
+			throws IllegalArgumentException {
+		if (pool == null || action == null) {
+			throw new IllegalArgumentException();
+		}
+		long failures = 0;
+		for (int i = 0; i < regions.length; i++) {
+			failures += pool.invoke(new Chunk(regions[i], starts[i], 0, regions[i].capacity(), action));
+		}
+		return failures;
+	}
+
+	/**
+	 * The lines from one index of a region to another: split in half, or
+	 * parsed in order if there are few of them. Each task counts the lines
+	 * that were not valid.
+	 */
+	private static final class Chunk extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer region;
+		private final long start;
+		private final int from;
+		private final int to;
+		private final ObjLongConsumer<LinkedBinaryTree<String>> action;
+
+		Chunk(ByteBuffer region, long start, int from, int to, ObjLongConsumer<LinkedBinaryTree<String>> action) {
+			this.region = region;
+			this.start = start;
+			this.from = from;
+			this.to = to;
+			this.action = action;
+		}
+
+		@Override
+		protected Long compute() {
+			if (to - from > CHUNK) {
+				// split just after the first line break past the middle; the
+				// region is read at absolute indices, so tasks can share it
+				int middle = from + (to - from) / 2;
+				while (middle < to && region.get(middle - 1) != '\n') {
+					middle++;
+				}
+				if (middle < to) {
+					Chunk left = new Chunk(region, start, from, middle, action);
+					left.fork();
+					long failures = new Chunk(region, start, middle, to, action).compute();
+					return failures + left.join();
+				}
+			}
+			int length = to - from;
+			byte[] bytes = BUFFER.get();
+			BUFFER.set(null);
+			if (bytes == null || bytes.length < length) {
+				bytes = new byte[Math.max(length, CHUNK)];
+			}
+			try {
+				region.get(from, bytes, 0, length);
+				return parseLines(bytes, length);
+			}
+			finally {
+				BUFFER.set(bytes);
+			}
+		}
+
+		private long parseLines(byte[] bytes, int length) {
+			Latin1 chars = new Latin1(bytes);
+			long failures = 0;
+			int line = 0;
+			while (line < length) {
+				int end = line;
+				while (end < length && bytes[end] != '\n') {
+					end++;
+				}
+				if (!isBlank(bytes, line, end)) {
+					LinkedBinaryTree<String> tree = null;
+					try {
+						tree = parse(bytes, chars, line, end);
+					}
+					catch (IllegalArgumentException e) {
+						failures++;
+					}
+					if (tree != null) {
+						action.accept(tree, start + from + line);
+					}
+				}
+				line = end + 1;
+			}
+			return failures;
+		}
+	}
+
+	/**
+	 * Builds the tree for the expression in bytes[from, to) in the same way as
+	 * Assignment.prefix2tree, reading the tokens from the bytes
+	 */
+	private static LinkedBinaryTree<String> parse(byte[] bytes, Latin1 chars, int from, int to)
+			throws IllegalArgumentException {
+		ExpressionTree tree = new ExpressionTree();
+		// operators whose left or right subtree has not been read yet
+		ArrayDeque<Position<String>> pending = new ArrayDeque<Position<String>>();
+		int i = from;
+		do {
+			while (i < to && isSeparator(bytes[i])) {
+				i++;
+			}
+			int token = i;
+			while (i < to && !isSeparator(bytes[i])) {
+				i++;
+			}
+			if (token == i) {
+				throw new IllegalArgumentException("Line was not a valid arithmetic expression in prefix notation");
+			}
+			Term term = i - token == 1 ? operator(bytes[token]) : null;
+			if (term == null) {
+				term = Term.parse(chars, token, i);
+			}
+			Position<String> position;
+			if (tree.isEmpty()) {
+				position = tree.addRoot(term);
+			}
+			else {
+				// the token is the next operand of the innermost pending operator
+				Position<String> parent = pending.peek();
+				if (tree.left(parent) == null) {
+					position = tree.addLeft(parent, term);
+				}
+				else {
+					position = tree.addRight(parent, term);
+					pending.pop();
+				}
+			}
+			if (term.isOperator()) {
+				pending.push(position);
+			}
+		} while (!pending.isEmpty());
+
+		// built from the grammar of prefix notation, so it is valid
+		tree.markValidated();
+		return tree;
+	}
+
+	private static Term operator(byte b) {
+		switch (b) {
+		case '+':
+			return Term.PLUS;
+		case '-':
+			return Term.MINUS;
+		case '*':
+			return Term.TIMES;
+		default:
+			return null;
+		}
+	}
+
+	// spaces, tabs and line breaks all separate tokens, as in PrefixTokenizer
+	private static boolean isSeparator(byte b) {
+		return (b & 0xFF) <= ' ';
+	}
+
+	private static boolean isBlank(byte[] bytes, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (!isSeparator(bytes[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Bytes seen as characters, one per byte, so that Term can parse and
+	 * intern an operand without it being copied into a String first
+	 */
+	private static final class Latin1 implements CharSequence {
+		private final byte[] bytes;
+
+		Latin1(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int length() {
+			return bytes.length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes[index] & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, StandardCharsets.ISO_8859_1);
+		}
+	}
+}
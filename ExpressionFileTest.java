@@ -0,0 +1,60 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ExpressionFileTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// a mapped file gives the same trees as prefix2tree, line by line, however it is split
+	@Test(timeout = 10000)
+	public void testExpressionFile() throws IOException {
+		String[] samples = { "- * 1 x x", "+ x * 0 y", "", "* 2 + x 3\r", "+ x", "  + * 2 3 - y * 4 5  ", "- 007\t+5" };
+		StringBuilder text = new StringBuilder();
+		HashMap<Long, String> expected = new HashMap<Long, String>();
+		for (int i = 0; i < 20000; i++) {
+			String line = samples[i % samples.length].replace("x", "x" + i % 100);
+			if (i % samples.length != 2 && i % samples.length != 4) {
+				expected.put((long) text.length(), Assignment.tree2prefix(Assignment.prefix2tree(line)));
+			}
+			text.append(line).append('\n');
+		}
+		Path file = Files.createTempFile("expressions", ".txt");
+		try {
+			Files.write(file, text.toString().getBytes(StandardCharsets.US_ASCII));
+			ExpressionFile expressions = ExpressionFile.map(file, 100000);
+			assertEquals(text.length(), expressions.size());
+			assertTrue(expressions.regionCount() > 1);
+			ConcurrentHashMap<Long, String> read = new ConcurrentHashMap<Long, String>();
+			ForkJoinPool pool = new ForkJoinPool(3);
+			long failures;
+			try {
+				failures = expressions.forEach(pool, (tree, offset) -> read.put(offset, Assignment.tree2prefix(tree)));
+			}
+			finally {
+				pool.shutdown();
+			}
+			assertEquals(20000 / samples.length, failures);
+			assertEquals(expected, read);
+
+			// no region can end at a line break
+			thrown.expect(IOException.class);
+			ExpressionFile.map(file, 10);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,396 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import textbook.BinaryTree;
+
+/**
+ * Compiles expressions that are evaluated often to JVM bytecode.
+ *
+ * An expression starts out evaluated by its CompiledExpression. Once it has
+ * been evaluated a threshold number of times, its postfix code is translated
+ * instruction by instruction into the method of a new hidden class: a literal
+ * becomes a constant, a variable an array load, and an operator a call to
+ * Math.addExact, subtractExact or multiplyExact. The JVM's own compiler can
+ * then keep the whole expression in registers. Expressions too large for the
+ * JVM to compile a method for (about 8000 bytes of bytecode) stay with the
+ * interpreter, as do any whose class cannot be defined.
+ *
+ * Expressions are cached by their prefix notation, so compiling an equal tree
+ * again returns the same expression, with its evaluations counted together.
+ * The cache holds a fixed number of expressions, dropping the least recently
+ * used, that is the one whose tree was compiled or found in the cache longest
+ * ago; a generated class is unloaded once its expression is no longer used.
+ */
+public final class ExpressionJit {
+
+	/**
+	 * An expression that is interpreted until it is hot, then generated
+	 */
+	public static final class HotExpression implements Evaluator {
+		private final CompiledExpression expression;
+		private final int threshold;
+		// racing threads may lose counts, which only delays generation
+		private int calls = 0;
+		private volatile Evaluator generated;
+
+		private HotExpression(CompiledExpression expression, int threshold) {
+			this.expression = expression;
+			this.threshold = threshold;
+		}
+
+		/**
+		 * @return the compiled expression, which gives the slot of each
+		 *         variable
+		 */
+		public CompiledExpression expression() {
+			return expression;
+		}
+
+		/**
+		 * @return true if this expression is now evaluated by generated code
+		 */
+		public boolean isGenerated() {
+			return generated != null;
+		}
+
+		@Override
+		public long evaluate(long[] values) throws IllegalArgumentException, ArithmeticException {
+			Evaluator code = generated;
+			if (code == null) {
+				if (++calls == threshold) {
+					generate();
+				}
+				return expression.evaluate(values);
+			}
+			// generated code does not check its argument
+			if (values == null || values.length < expression.variableCount()) {
+				throw new IllegalArgumentException("Expected values for " + expression.variableCount() + " variables");
+			}
+			return code.evaluate(values);
+		}
+
+		private synchronized void generate() {
+			if (generated == null) {
+				generated = ExpressionJit.generate(expression);
+			}
+		}
+	}
+
+	/** The number of evaluations after which an expression is generated. */
+	public static final int DEFAULT_THRESHOLD = 10000;
+	/** The number of expressions cached. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	// HotSpot does not compile methods with more bytecode than this
+	private static final int MAX_CODE_LENGTH = 8000;
+	private static final String CLASS_NAME = "GeneratedEvaluator";
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private final int threshold;
+	private final LinkedHashMap<String, HotExpression> cache;
+
+	/** Constructs a compiler with the default threshold and capacity. */
+	public ExpressionJit() {
+		this(DEFAULT_THRESHOLD, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a compiler
+	 *
+	 * @param threshold
+	 *            - the number of evaluations after which an expression is
+	 *            generated; 1 generates it on its first evaluation
+	 * @param capacity
+	 *            - the number of expressions to cache
+	 * @throws IllegalArgumentException
+	 *             if threshold or capacity is less than 1
+	 */
+	public ExpressionJit(int threshold, final int capacity) throws IllegalArgumentException {
+		if (threshold < 1 || capacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.threshold = threshold;
+		this.cache = new LinkedHashMap<String, HotExpression>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, HotExpression> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Compiles a tree, or finds it in the cache
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return the expression, which is generated once it is hot
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 * @throws ArithmeticException
+	 *             if a literal does not fit in a long
+	 */
+	public HotExpression compile(BinaryTree<String> tree) throws IllegalArgumentException, ArithmeticException {
+		String key = Assignment.tree2prefix(tree);
+		synchronized (cache) {
+			HotExpression hot = cache.get(key);
+			if (hot == null) {
+				hot = new HotExpression(CompiledExpression.compile(tree), threshold);
+				cache.put(key, hot);
+			}
+			return hot;
+		}
+	}
+
+	/**
+	 * @return the number of expressions in the cache
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/*
+	 * Defines a hidden class whose evaluate method runs the code of
+	 * expression, or returns null if that cannot be done
+	 */
+	static Evaluator generate(CompiledExpression expression) {
+		byte[] bytes = new ClassWriter().write(expression);
+		if (bytes == null) {
+			return null;
+		}
+		try {
+			Class<?> c = LOOKUP.defineHiddenClass(bytes, true).lookupClass();
+			return (Evaluator) c.getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the class file of a generated evaluator: a public final class
+	 * with a no-argument constructor and evaluate(long[]), whose straight-line
+	 * code needs no stack map frames
+	 */
+	private static final class ClassWriter {
+		// class file version of Java 17
+		private static final int VERSION = 61;
+		private static final int ACC_PUBLIC = 0x0001;
+		private static final int ACC_FINAL = 0x0010;
+		private static final int ACC_SUPER = 0x0020;
+
+		// constant pool tags
+		private static final int UTF8 = 1;
+		private static final int LONG = 5;
+		private static final int CLASS = 7;
+		private static final int METHOD_REF = 10;
+		private static final int NAME_AND_TYPE = 12;
+
+		// instructions
+		private static final int ICONST_0 = 0x03;
+		private static final int LCONST_0 = 0x09;
+		private static final int LCONST_1 = 0x0a;
+		private static final int BIPUSH = 0x10;
+		private static final int SIPUSH = 0x11;
+		private static final int LDC2_W = 0x14;
+		private static final int ALOAD_0 = 0x2a;
+		private static final int ALOAD_1 = 0x2b;
+		private static final int LALOAD = 0x2f;
+		private static final int LRETURN = 0xad;
+		private static final int RETURN = 0xb1;
+		private static final int INVOKESPECIAL = 0xb7;
+		private static final int INVOKESTATIC = 0xb8;
+
+		private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+		private final DataOutputStream pool = new DataOutputStream(poolBytes);
+		private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+		private int poolCount = 1;
+
+		// returns null if the code would be too large
+		byte[] write(CompiledExpression expression) {
+			try {
+				int maxStack = 2 * expression.maxStack() + 2;
+				if (maxStack > 0xffff || expression.variableCount() > Short.MAX_VALUE) {
+					return null;
+				}
+				byte[] code = evaluateCode(expression);
+				if (code == null) {
+					return null;
+				}
+				int thisClass = classEntry(CLASS_NAME);
+				int object = classEntry("java/lang/Object");
+				int evaluator = classEntry(Evaluator.class.getName().replace('.', '/'));
+				int objectInit = methodEntry(object, "<init>", "()V");
+				int init = utf8("<init>");
+				int initType = utf8("()V");
+				int evaluate = utf8("evaluate");
+				int evaluateType = utf8("([J)J");
+				int codeName = utf8("Code");
+				if (poolCount > 0xffff) {
+					return null;
+				}
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(0xcafebabe);
+				out.writeShort(0);
+				out.writeShort(VERSION);
+				out.writeShort(poolCount);
+				poolBytes.writeTo(out);
+				out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+				out.writeShort(thisClass);
+				out.writeShort(object);
+				out.writeShort(1);
+				out.writeShort(evaluator);
+				out.writeShort(0); // fields
+				out.writeShort(2); // methods
+				byte[] initCode = { (byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit,
+						(byte) RETURN };
+				writeMethod(out, init, initType, codeName, 1, 1, initCode);
+				writeMethod(out, evaluate, evaluateType, codeName, maxStack, 2, code);
+				out.writeShort(0); // attributes
+				return bytes.toByteArray();
+			}
+			catch (IOException e) {
+				// not thrown by byte array streams
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private byte[] evaluateCode(CompiledExpression expression) throws IOException {
+			int add = methodEntry(classEntry("java/lang/Math"), "addExact", "(JJ)J");
+			int subtract = methodEntry(classEntry("java/lang/Math"), "subtractExact", "(JJ)J");
+			int multiply = methodEntry(classEntry("java/lang/Math"), "multiplyExact", "(JJ)J");
+			long[] constants = expression.constants();
+			ByteArrayOutputStream code = new ByteArrayOutputStream();
+			for (int instruction : expression.code()) {
+				int operand = instruction >>> CompiledExpression.OPCODE_BITS;
+				switch (instruction & CompiledExpression.OPCODE_MASK) {
+				case CompiledExpression.CONST:
+					long value = constants[operand];
+					if (value == 0 || value == 1) {
+						code.write(value == 0 ? LCONST_0 : LCONST_1);
+					}
+					else {
+						writeIndexed(code, LDC2_W, longEntry(value));
+					}
+					break;
+				case CompiledExpression.LOAD:
+					code.write(ALOAD_1);
+					if (operand <= 5) {
+						code.write(ICONST_0 + operand);
+					}
+					else if (operand <= Byte.MAX_VALUE) {
+						code.write(BIPUSH);
+						code.write(operand);
+					}
+					else {
+						writeIndexed(code, SIPUSH, operand);
+					}
+					code.write(LALOAD);
+					break;
+				case CompiledExpression.ADD:
+					writeIndexed(code, INVOKESTATIC, add);
+					break;
+				case CompiledExpression.SUB:
+					writeIndexed(code, INVOKESTATIC, subtract);
+					break;
+				default:
+					writeIndexed(code, INVOKESTATIC, multiply);
+				}
+				if (code.size() > MAX_CODE_LENGTH) {
+					return null;
+				}
+			}
+			code.write(LRETURN);
+			return code.toByteArray();
+		}
+
+		private static void writeIndexed(ByteArrayOutputStream code, int opcode, int index) {
+			code.write(opcode);
+			code.write(index >> 8);
+			code.write(index);
+		}
+
+		private static void writeMethod(DataOutputStream out, int name, int type, int codeName, int maxStack,
+				int maxLocals, byte[] code) throws IOException {
+			out.writeShort(ACC_PUBLIC);
+			out.writeShort(name);
+			out.writeShort(type);
+			out.writeShort(1);
+			out.writeShort(codeName);
+			out.writeInt(12 + code.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(code.length);
+			out.write(code);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+		}
+
+		// constant pool entries, each added once
+
+		private int utf8(String s) throws IOException {
+			Integer index = entries.get("U" + s);
+			if (index == null) {
+				pool.writeByte(UTF8);
+				pool.writeUTF(s);
+				index = poolCount++;
+				entries.put("U" + s, index);
+			}
+			return index;
+		}
+
+		private int classEntry(String name) throws IOException {
+			Integer index = entries.get("C" + name);
+			if (index == null) {
+				int n = utf8(name);
+				pool.writeByte(CLASS);
+				pool.writeShort(n);
+				index = poolCount++;
+				entries.put("C" + name, index);
+			}
+			return index;
+		}
+
+		private int methodEntry(int owner, String name, String type) throws IOException {
+			String key = "M" + owner + " " + name + type;
+			Integer index = entries.get(key);
+			if (index == null) {
+				int n = utf8(name);
+				int t = utf8(type);
+				pool.writeByte(NAME_AND_TYPE);
+				pool.writeShort(n);
+				pool.writeShort(t);
+				int nameAndType = poolCount++;
+				pool.writeByte(METHOD_REF);
+				pool.writeShort(owner);
+				pool.writeShort(nameAndType);
+				index = poolCount++;
+				entries.put(key, index);
+			}
+			return index;
+		}
+
+		private int longEntry(long value) throws IOException {
+			Integer index = entries.get("J" + value);
+			if (index == null) {
+				pool.writeByte(LONG);
+				pool.writeLong(value);
+				index = poolCount;
+				// a long takes two entries
+				poolCount += 2;
+				entries.put("J" + value, index);
+			}
+			return index;
+		}
+	}
+}
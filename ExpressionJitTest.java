@@ -0,0 +1,55 @@
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ExpressionJitTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// hot expressions switch to generated code and keep their values
+	@Test(timeout = 5000)
+	public void testExpressionJit() {
+		ExpressionJit jit = new ExpressionJit(3, 2);
+		ExpressionJit.HotExpression hot = jit.compile(Assignment.prefix2tree("- * a 1000000007 * + b 1 b"));
+		assertTrue(hot == jit.compile(Assignment.prefix2tree("- * a 1000000007 * + b 1 b")));
+		assertEquals(1, jit.size());
+		long[] values = { 2, 3 };
+		for (int i = 0; i < 3; i++) {
+			assertFalse(hot.isGenerated());
+			assertEquals(2000000002, hot.evaluate(values));
+		}
+		assertTrue(hot.isGenerated());
+		for (long a = -5; a <= 5; a++) {
+			values[0] = a;
+			assertEquals(hot.expression().evaluate(values), hot.evaluate(values));
+		}
+
+		// the least recently compiled expression is dropped
+		jit.compile(Assignment.prefix2tree("+ x 1"));
+		jit.compile(Assignment.prefix2tree("+ x 2"));
+		assertEquals(2, jit.size());
+		assertFalse(hot == jit.compile(Assignment.prefix2tree("- * a 1000000007 * + b 1 b")));
+
+		// too large for the JVM to compile, so stays interpreted
+		ExpressionJit.HotExpression large = new ExpressionJit(1, 1).compile(AssignmentTest.leftChain("+", "v", 10000, "7"));
+		assertEquals(7, large.evaluate(new long[1]));
+		assertFalse(large.isGenerated());
+
+		// generated code checks for overflow
+		hot = new ExpressionJit(1, 1).compile(Assignment.prefix2tree("* x x"));
+		hot.evaluate(new long[] { 1 });
+		assertTrue(hot.isGenerated());
+		try {
+			hot.evaluate(new long[] { 1L << 32 });
+			fail();
+		}
+		catch (ArithmeticException e) {
+		}
+		thrown.expect(IllegalArgumentException.class);
+		hot.evaluate(new long[0]);
+	}
+}
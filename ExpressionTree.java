@@ -0,0 +1,350 @@
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * A LinkedBinaryTree of arithmetic expression elements whose nodes also keep
+ * the parsed Term for their element.
+ *
+ * Nodes can be created directly from a Term, in which case the element String
+ * is only produced when it is first asked for (e.g. when the tree is printed).
+ * Setting an element String discards the stored Term, which is then parsed
+ * again from the new element if it is needed.
+ *
+ * Each node also caches the size and a structural (Merkle-style) hash of the
+ * subtree below it, computed when first needed. Any change to a node's element
+ * or children discards the cached values of that node and its ancestors, so
+ * trees that differ can usually be told apart in O(1) time. Only expression
+ * trees can be attached to an expression tree.
+ *
+ * The tree also remembers whether it is known to be a valid arithmetic
+ * expression. Assignment marks it once it has checked the tree (or built it
+ * itself), so a pipeline of operations only validates its input once. The
+ * mark is kept on the nodes, like the summaries: each node records that its
+ * subtree was found valid, and a change to a node clears the record of that
+ * node and its ancestors. So the mark is lost however the tree is changed,
+ * including through another tree that was given one of its positions.
+ *
+ * This is the tree type returned by the operations in Assignment.
+ */
+public class ExpressionTree extends LinkedBinaryTree<String> {
+
+	/**
+	 * A node that stores the Term for its element
+	 */
+	static class TermNode extends Node<String> implements TermPosition {
+		private Term term;
+		// cached summary of the subtree rooted here, valid if summarized
+		private boolean summarized = false;
+		private int subtreeSize;
+		private int hash;
+		// true if the subtree rooted here is a valid expression and has not
+		// changed since it was found to be
+		private boolean validated = false;
+
+		TermNode(String e, Node<String> above, Node<String> leftChild, Node<String> rightChild) {
+			super(e, above, leftChild, rightChild);
+		}
+
+		@Override
+		public String getElement() {
+			String e = super.getElement();
+			if (e == null && term != null) {
+				e = term.text();
+				super.setElement(e);
+			}
+			return e;
+		}
+
+		@Override
+		public void setElement(String e) {
+			super.setElement(e);
+			term = null;
+			invalidate();
+		}
+
+		@Override
+		public void setLeft(Node<String> leftChild) {
+			super.setLeft(leftChild);
+			invalidate();
+		}
+
+		@Override
+		public void setRight(Node<String> rightChild) {
+			super.setRight(rightChild);
+			invalidate();
+		}
+
+		@Override
+		public Term term() {
+			if (term == null) {
+				term = Term.parse(super.getElement());
+			}
+			return term;
+		}
+
+		void setTerm(Term t) {
+			super.setElement(null);
+			term = t;
+			invalidate();
+		}
+
+		/*
+		 * Discards the summaries and validity of this node and its ancestors.
+		 * A node is only summarized (or validated) if all of its descendants
+		 * are, so the walk can stop at the first ancestor with neither.
+		 */
+		private void invalidate() {
+			Node<String> walk = this;
+			while (walk instanceof TermNode && (((TermNode) walk).summarized || ((TermNode) walk).validated)) {
+				((TermNode) walk).summarized = false;
+				((TermNode) walk).validated = false;
+				walk = walk.getParent();
+			}
+		}
+	}
+
+	/** Constructs an empty expression tree. */
+	public ExpressionTree() {
+	}
+
+	/**
+	 * @return true if the tree has been found to be a valid arithmetic
+	 *         expression and has not been changed since
+	 */
+	boolean isValidated() {
+		return root instanceof TermNode && ((TermNode) root).validated;
+	}
+
+	/**
+	 * Records that the tree is a valid arithmetic expression, until it is
+	 * next changed. Every node that is not yet marked is marked, without
+	 * recursion.
+	 */
+	void markValidated() {
+		if (!(root instanceof TermNode)) {
+			return;
+		}
+		TermNode top = (TermNode) root;
+		TermNode walk = top;
+		while (!top.validated) {
+			TermNode left = (TermNode) walk.getLeft();
+			TermNode right = (TermNode) walk.getRight();
+			if (left != null && !left.validated) {
+				walk = left;
+			}
+			else if (right != null && !right.validated) {
+				walk = right;
+			}
+			else {
+				walk.validated = true;
+				if (walk != top) {
+					walk = (TermNode) walk.getParent();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Only expression trees (whose nodes are all TermNodes) can be attached.
+	 * t1 and t2 are left empty, so they are no longer valid expressions.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if t1 or t2 is not an ExpressionTree
+	 */
+	@Override
+	public void attach(Position<String> p, LinkedBinaryTree<String> t1, LinkedBinaryTree<String> t2)
+			throws IllegalArgumentException {
+		if (!(t1 instanceof ExpressionTree) || !(t2 instanceof ExpressionTree)) {
+			throw new IllegalArgumentException("Only expression trees can be attached");
+		}
+		super.attach(p, t1, t2);
+	}
+
+	@Override
+	protected Node<String> createNode(String e, Node<String> parent, Node<String> left, Node<String> right) {
+		return new TermNode(e, parent, left, right);
+	}
+
+	/**
+	 * Places term t at the root of an empty tree and returns its new Position.
+	 *
+	 * @param t
+	 *            - the new element, as a term
+	 * @return the Position of the new element
+	 * @throws IllegalStateException
+	 *             if the tree is not empty
+	 */
+	public Position<String> addRoot(Term t) throws IllegalStateException {
+		return withTerm(addRoot((String) null), t);
+	}
+
+	/**
+	 * Creates a new left child of Position p storing term t and returns its
+	 * Position.
+	 *
+	 * @param p
+	 *            - the Position to the left of which the new element is
+	 *            inserted
+	 * @param t
+	 *            - the new element, as a term
+	 * @return the Position of the new element
+	 * @throws IllegalArgumentException
+	 *             if p is not a valid Position for this tree, or already has
+	 *             a left child
+	 */
+	public Position<String> addLeft(Position<String> p, Term t) throws IllegalArgumentException {
+		return withTerm(addLeft(p, (String) null), t);
+	}
+
+	/**
+	 * Creates a new right child of Position p storing term t and returns its
+	 * Position.
+	 *
+	 * @param p
+	 *            - the Position to the right of which the new element is
+	 *            inserted
+	 * @param t
+	 *            - the new element, as a term
+	 * @return the Position of the new element
+	 * @throws IllegalArgumentException
+	 *             if p is not a valid Position for this tree, or already has
+	 *             a right child
+	 */
+	public Position<String> addRight(Position<String> p, Term t) throws IllegalArgumentException {
+		return withTerm(addRight(p, (String) null), t);
+	}
+
+	/**
+	 * Replaces the element at Position p with term t and returns the replaced
+	 * element.
+	 *
+	 * @param p
+	 *            - the Position of the element to replace
+	 * @param t
+	 *            - the new element, as a term
+	 * @return the replaced element
+	 * @throws IllegalArgumentException
+	 *             if p is not a valid Position for this tree
+	 */
+	public String set(Position<String> p, Term t) throws IllegalArgumentException {
+		String old = set(p, (String) null);
+		withTerm(p, t);
+		return old;
+	}
+
+	/**
+	 * Creates a detached leaf storing term t (see
+	 * LinkedBinaryTree.detachedNode)
+	 *
+	 * @param t
+	 *            - the new element, as a term
+	 * @return the Position of the new detached node
+	 */
+	public Position<String> detachedNode(Term t) {
+		return withTerm(detachedNode((String) null), t);
+	}
+
+	/**
+	 * Creates a detached node storing term t with the given detached children
+	 * (see LinkedBinaryTree.detachedNode)
+	 *
+	 * @param t
+	 *            - the new element, as a term
+	 * @param left
+	 *            - a detached node to become the left child (or null)
+	 * @param right
+	 *            - a detached node to become the right child (or null)
+	 * @return the Position of the new detached node
+	 * @throws IllegalArgumentException
+	 *             if either child is not a valid detached Position
+	 */
+	public Position<String> detachedNode(Term t, Position<String> left, Position<String> right)
+			throws IllegalArgumentException {
+		return withTerm(detachedNode((String) null, left, right), t);
+	}
+
+	/**
+	 * Only detached nodes of expression trees can become children.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if left or right is not a node of an ExpressionTree
+	 */
+	@Override
+	public Position<String> detachedNode(String e, Position<String> left, Position<String> right)
+			throws IllegalArgumentException {
+		if ((left != null && !(left instanceof TermNode)) || (right != null && !(right instanceof TermNode))) {
+			throw new IllegalArgumentException("Children must be expression tree nodes");
+		}
+		return super.detachedNode(e, left, right);
+	}
+
+	/**
+	 * Tests if a position caches a summary of its subtree
+	 */
+	static boolean cachesSummary(Position<String> p) {
+		return p instanceof TermNode;
+	}
+
+	/**
+	 * @return the number of positions in the subtree rooted at p, a node of an
+	 *         expression tree
+	 */
+	static int subtreeSize(Position<String> p) {
+		TermNode node = (TermNode) p;
+		summarize(node);
+		return node.subtreeSize;
+	}
+
+	/**
+	 * @return the structural hash of the subtree rooted at p, a node of an
+	 *         expression tree; identical subtrees have identical hashes
+	 */
+	static int structuralHash(Position<String> p) {
+		TermNode node = (TermNode) p;
+		summarize(node);
+		return node.hash;
+	}
+
+	/*
+	 * Computes the missing summaries below top, without recursion: descend to
+	 * a node whose children are summarized, summarize it, then step back up.
+	 */
+	private static void summarize(TermNode top) {
+		TermNode walk = top;
+		while (!top.summarized) {
+			TermNode left = (TermNode) walk.getLeft();
+			TermNode right = (TermNode) walk.getRight();
+			if (left != null && !left.summarized) {
+				walk = left;
+			}
+			else if (right != null && !right.summarized) {
+				walk = right;
+			}
+			else {
+				Term term = walk.term();
+				int hash = term == null ? 0 : term.hashCode();
+				int size = 1;
+				if (left != null) {
+					hash = 31 * hash + left.hash;
+					size += left.subtreeSize;
+				}
+				if (right != null) {
+					hash = 31 * hash + right.hash;
+					size += right.subtreeSize;
+				}
+				// tell a lone left child from a lone right child
+				walk.hash = (left == null) == (right == null) ? hash : ~hash;
+				walk.subtreeSize = size;
+				walk.summarized = true;
+				if (walk != top) {
+					walk = (TermNode) walk.getParent();
+				}
+			}
+		}
+	}
+
+	private static Position<String> withTerm(Position<String> p, Term t) {
+		((TermNode) p).setTerm(t);
+		return p;
+	}
+}
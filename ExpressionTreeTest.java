@@ -0,0 +1,51 @@
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class ExpressionTreeTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// a tree built by Assignment stays valid only until it is changed
+	@Test(timeout = 100)
+	public void testValidatedTreeUpdated() {
+		LinkedBinaryTree<String> tree = Assignment.simplify(Assignment.prefix2tree("+ x * 2 3"));
+		assertTrue(Assignment.isArithmeticExpression(tree));
+		tree.set(tree.left(tree.root()), "*");
+		assertFalse(Assignment.isArithmeticExpression(tree));
+		tree.set(tree.left(tree.root()), "y");
+		assertTrue(Assignment.isArithmeticExpression(tree));
+
+		thrown.expect(IllegalArgumentException.class);
+		tree.set(tree.right(tree.root()), "-");
+		Assignment.tree2prefix(tree);
+	}
+
+	// attached trees are left empty, and so not valid; a change made through another tree is seen too
+	@Test(timeout = 5000)
+	public void testValidatedTreeAttached() {
+		LinkedBinaryTree<String> left = Assignment.prefix2tree("* 2 3");
+		LinkedBinaryTree<String> right = Assignment.prefix2tree("y");
+		assertTrue(Assignment.isArithmeticExpression(left));
+		ExpressionTree host = new ExpressionTree();
+		host.addRoot("+");
+		host.attach(host.root(), left, right);
+		assertTrue(left.isEmpty());
+		assertFalse(Assignment.isArithmeticExpression(left));
+		assertFalse(Assignment.isArithmeticExpression(right));
+		assertTrue(Assignment.isArithmeticExpression(host));
+		assertEquals("+ * 2 3 y", Assignment.tree2prefix(host));
+
+		new LinkedBinaryTree<String>().set(host.right(host.left(host.root())), "-");
+		assertFalse(Assignment.isArithmeticExpression(host));
+
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.tree2prefix(left);
+	}
+}
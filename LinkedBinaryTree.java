@@ -38,6 +38,7 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     private Node<E> parent;     // a reference to the parent node (if any)
     private Node<E> left;       // a reference to the left child (if any)
     private Node<E> right;      // a reference to the right child (if any)
+    private boolean treeRoot;   // whether this node is currently the root of a tree
 
     /**
      * Constructs a node with the given element and neighbors.
@@ -59,12 +60,14 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     public Node<E> getParent() { return parent; }
     public Node<E> getLeft() { return left; }
     public Node<E> getRight() { return right; }
+    public boolean isTreeRoot() { return treeRoot; }
 
     // update methods
     public void setElement(E e) { element = e; }
     public void setParent(Node<E> parentNode) { parent = parentNode; }
     public void setLeft(Node<E> leftChild) { left = leftChild; }
     public void setRight(Node<E> rightChild) { right = rightChild; }
+    public void setTreeRoot(boolean isRoot) { treeRoot = isRoot; }
   } //----------- end of nested Node class -----------
 
   /** Factory function to create a new node storing element e. */
@@ -173,6 +176,7 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
   public Position<E> addRoot(E e) throws IllegalStateException {
     if (!isEmpty()) throw new IllegalStateException("Tree is not empty");
     root = createNode(e, null, null, null);
+    root.setTreeRoot(true);
     size = 1;
     return root;
   }
@@ -217,6 +221,95 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     return child;
   }
 
+  /**
+   * Creates a leaf storing element e that does not yet belong to any tree.
+   * Detached nodes can be linked together bottom-up and then installed as the
+   * structure of an empty tree with a single call to setRoot.
+   *
+   * @param e   the new element
+   * @return the Position of the new detached node
+   */
+  public Position<E> detachedNode(E e) {
+    return createNode(e, null, null, null);
+  }
+
+  /**
+   * Creates a node storing element e, with the given detached subtrees as its
+   * children, that does not yet belong to any tree.
+   *
+   * @param e       the new element
+   * @param left    a detached node to become the left child (or null)
+   * @param right   a detached node to become the right child (or null)
+   * @return the Position of the new detached node
+   * @throws IllegalArgumentException if either child is not a valid Position
+   * @throws IllegalArgumentException if either child already has a parent
+   * @throws IllegalArgumentException if either child is the root of a tree
+   */
+  public Position<E> detachedNode(E e, Position<E> left, Position<E> right)
+                          throws IllegalArgumentException {
+    Node<E> leftChild = (left == null ? null : validateDetached(left));
+    Node<E> rightChild = (right == null ? null : validateDetached(right));
+    if (leftChild != null && leftChild == rightChild)
+      throw new IllegalArgumentException("left and right must be distinct");
+    Node<E> node = createNode(e, null, leftChild, rightChild);
+    if (leftChild != null) leftChild.setParent(node);
+    if (rightChild != null) rightChild.setParent(node);
+    return node;
+  }
+
+  /**
+   * Installs the detached structure rooted at p as the contents of this empty
+   * tree. This runs in O(n) time, where n is the number of nodes attached.
+   *
+   * @param p   the root of a structure built from detached nodes
+   * @throws IllegalStateException if the tree is not empty
+   * @throws IllegalArgumentException if p is not a valid detached Position
+   * @throws IllegalArgumentException if p is the root of a tree
+   */
+  public void setRoot(Position<E> p) throws IllegalStateException,
+                                            IllegalArgumentException {
+    if (!isEmpty()) throw new IllegalStateException("Tree is not empty");
+    Node<E> node = validateDetached(p);
+    node.setTreeRoot(true);
+    root = node;
+    size = countNodes(node);
+  }
+
+  /** Validates p, which must additionally not have a parent nor be a root. */
+  private Node<E> validateDetached(Position<E> p) throws IllegalArgumentException {
+    Node<E> node = validate(p);
+    if (node.getParent() != null)
+      throw new IllegalArgumentException("p already has a parent");
+    if (node.isTreeRoot())      // the root of a tree has no parent either
+      throw new IllegalArgumentException("p is the root of a tree");
+    return node;
+  }
+
+  /** Counts the nodes below (and including) top, without recursion. */
+  private static <E> int countNodes(Node<E> top) {
+    int count = 0;
+    Node<E> walk = top;
+    while (walk != null) {
+      count++;
+      if (walk.getLeft() != null)
+        walk = walk.getLeft();
+      else if (walk.getRight() != null)
+        walk = walk.getRight();
+      else {
+        // climb until we leave a left child that has a right sibling
+        Node<E> next = null;
+        while (walk != top && next == null) {
+          Node<E> parent = walk.getParent();
+          if (walk == parent.getLeft() && parent.getRight() != null)
+            next = parent.getRight();
+          walk = parent;
+        }
+        walk = next;
+      }
+    }
+    return count;
+  }
+
   /**
    * Replaces the element at Position p with element e and returns the replaced element.
    *
@@ -249,12 +342,14 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     size += t1.size() + t2.size();
     if (!t1.isEmpty()) {                  // attach t1 as left subtree of node
       t1.root.setParent(node);
+      t1.root.setTreeRoot(false);
       node.setLeft(t1.root);
       t1.root = null;
       t1.size = 0;
     }
     if (!t2.isEmpty()) {                  // attach t2 as right subtree of node
       t2.root.setParent(node);
+      t2.root.setTreeRoot(false);
       node.setRight(t2.root);
       t2.root = null;
       t2.size = 0;
@@ -276,9 +371,11 @@ public class LinkedBinaryTree<E> extends AbstractBinaryTree<E> {
     Node<E> child = (node.getLeft() != null ? node.getLeft() : node.getRight() );
     if (child != null)
       child.setParent(node.getParent());  // child's grandparent becomes its parent
-    if (node == root)
+    if (node == root) {
       root = child;                       // child becomes root
-    else {
+      if (child != null)
+        child.setTreeRoot(true);
+    } else {
       Node<E> parent = node.getParent();
       if (node == parent.getLeft())
         parent.setLeft(child);
@@ -0,0 +1,39 @@
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+public class LinkedBinaryTreeTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// detached nodes can be installed as a root, but the root of another tree cannot
+	@Test(timeout = 100)
+	public void testSetRootOfAnotherTree() {
+		LinkedBinaryTree<String> built = new LinkedBinaryTree<String>();
+		built.setRoot(built.detachedNode("*", built.detachedNode("2"), built.detachedNode("y")));
+		assertEquals("* 2 y", Assignment.tree2prefix(built));
+
+		// attaching a tree's root makes it an inner node that another tree cannot take
+		LinkedBinaryTree<String> host = new LinkedBinaryTree<String>();
+		host.addRoot("+");
+		host.attach(host.root(), Assignment.prefix2tree("x"), built);
+		assertEquals("+ x * 2 y", Assignment.tree2prefix(host));
+
+		// the only child of a removed root becomes the root
+		LinkedBinaryTree<String> chain = new LinkedBinaryTree<String>();
+		chain.addRoot("a");
+		Position<String> promoted = chain.addLeft(chain.root(), "b");
+		chain.remove(chain.root());
+		assertEquals(promoted, chain.root());
+
+		thrown.expect(IllegalArgumentException.class);
+		new LinkedBinaryTree<String>().setRoot(promoted);
+	}
+}
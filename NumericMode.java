@@ -0,0 +1,88 @@
+import java.math.BigInteger;
+
+/**
+ * The arithmetic used when simplify and simplifyFancy evaluate an operator
+ * whose operands are both numbers.
+ *
+ * INT is the arithmetic of the original assignment: every literal that is
+ * folded must fit in an int, and results wrap around on overflow. EXACT never
+ * loses a value: it works on longs, and only when an operand does not fit in
+ * a long or the result would overflow does it redo that one operation with
+ * BigInteger. Results that fit in a long are stored as longs again, so a
+ * single large intermediate value does not slow down the rest of the tree.
+ *
+ * Example: "* 100000 100000" simplifies to "1410065408" with INT and to
+ * "10000000000" with EXACT.
+ */
+public enum NumericMode {
+
+	/**
+	 * int arithmetic, wrapping on overflow
+	 */
+	INT {
+		@Override
+		Term apply(Term operator, Term left, Term right) throws NumberFormatException {
+			int a = left.intValue();
+			int b = right.intValue();
+			switch (operator.operator()) {
+			case '+':
+				return Term.literal(a + b);
+			case '-':
+				return Term.literal(a - b);
+			default:
+				return Term.literal(a * b);
+			}
+		}
+	},
+
+	/**
+	 * exact arithmetic on integers of any size
+	 */
+	EXACT {
+		@Override
+		Term apply(Term operator, Term left, Term right) {
+			if (left.isLong() && right.isLong()) {
+				long a = left.longValue();
+				long b = right.longValue();
+				try {
+					switch (operator.operator()) {
+					case '+':
+						return Term.literal(Math.addExact(a, b));
+					case '-':
+						return Term.literal(Math.subtractExact(a, b));
+					default:
+						return Term.literal(Math.multiplyExact(a, b));
+					}
+				}
+				catch (ArithmeticException overflow) {
+					// the result needs more than 64 bits: redo it below
+				}
+			}
+			BigInteger a = left.bigValue();
+			BigInteger b = right.bigValue();
+			switch (operator.operator()) {
+			case '+':
+				return Term.literal(a.add(b));
+			case '-':
+				return Term.literal(a.subtract(b));
+			default:
+				return Term.literal(a.multiply(b));
+			}
+		}
+	};
+
+	/**
+	 * Applies an operator to two literals
+	 *
+	 * @param operator
+	 *            - Term.PLUS, Term.MINUS or Term.TIMES
+	 * @param left
+	 *            - the left operand, a literal
+	 * @param right
+	 *            - the right operand, a literal
+	 * @return the literal result
+	 * @throws NumberFormatException
+	 *             if an operand cannot be represented in this mode
+	 */
+	abstract Term apply(Term operator, Term left, Term right) throws NumberFormatException;
+}
@@ -0,0 +1,417 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import textbook.BinaryTree;
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * An arithmetic expression in polynomial normal form: a sum of distinct
+ * monomials (products of variables), each with a non-zero integer
+ * coefficient.
+ *
+ * Converting an expression collects like terms, so "+ * 2 x * 3 x" becomes
+ * 5x and "- * x y * y x" becomes 0, and converting back gives the smallest
+ * tree of that form. Two expressions that are equal as polynomials have the
+ * same normal form.
+ *
+ * Monomials are numbered by a table shared by all the polynomials of one
+ * conversion, and a polynomial maps monomial numbers to long coefficients in
+ * an open-addressing table of primitives. Coefficients are computed exactly;
+ * a coefficient that does not fit in a long is an error. Note that expanding
+ * products of sums can make a polynomial much larger than its expression.
+ */
+public final class Polynomial {
+
+	/**
+	 * Numbers the monomials, and the variables they are made of
+	 */
+	private static final class Monomials {
+		private final HashMap<Term, Integer> variableIds = new HashMap<Term, Integer>();
+		private Term[] variables = new Term[8];
+		private int variableCount = 0;
+		// each monomial is a sorted array of variable ids, repeated for powers
+		private int[][] monomials = new int[16][];
+		private int count = 0;
+		// open-addressing table of monomial ids + 1 (0 is an empty slot)
+		private int[] table = new int[32];
+
+		Monomials() {
+			intern(new int[0]);
+		}
+
+		int variable(Term t) {
+			Integer id = variableIds.get(t);
+			if (id == null) {
+				if (variableCount == variables.length) {
+					variables = Arrays.copyOf(variables, 2 * variableCount);
+				}
+				id = variableCount;
+				variables[variableCount++] = t;
+				variableIds.put(t, id);
+			}
+			return intern(new int[] { id });
+		}
+
+		int product(int a, int b) {
+			int[] x = monomials[a];
+			int[] y = monomials[b];
+			if (y.length == 0) {
+				return a;
+			}
+			if (x.length == 0) {
+				return b;
+			}
+			// merge the sorted variable lists
+			int[] merged = new int[x.length + y.length];
+			for (int i = 0, j = 0, k = 0; k < merged.length; k++) {
+				merged[k] = (j == y.length || (i < x.length && x[i] <= y[j])) ? x[i++] : y[j++];
+			}
+			return intern(merged);
+		}
+
+		int intern(int[] monomial) {
+			int mask = table.length - 1;
+			int i = Arrays.hashCode(monomial) & mask;
+			for (int slot = table[i]; slot != 0; slot = table[i]) {
+				if (Arrays.equals(monomials[slot - 1], monomial)) {
+					return slot - 1;
+				}
+				i = (i + 1) & mask;
+			}
+			if (count == monomials.length) {
+				monomials = Arrays.copyOf(monomials, 2 * count);
+			}
+			monomials[count] = monomial;
+			table[i] = ++count;
+			if (2 * count > table.length) {
+				int[] old = table;
+				table = new int[2 * old.length];
+				mask = table.length - 1;
+				for (int slot : old) {
+					if (slot != 0) {
+						int j = Arrays.hashCode(monomials[slot - 1]) & mask;
+						while (table[j] != 0) {
+							j = (j + 1) & mask;
+						}
+						table[j] = slot;
+					}
+				}
+			}
+			return count - 1;
+		}
+	}
+
+	private static final int CONSTANT = 0;
+
+	private final Monomials monomials;
+	// open-addressing map from monomial id (-1 for an empty slot) to coefficient
+	private int[] keys;
+	private long[] coefficients;
+	private int used = 0;
+	// -1 if the stored coefficients are the negated values, so that a
+	// polynomial can be negated in O(1) time
+	private int sign = 1;
+
+	private Polynomial(Monomials monomials, int capacity) {
+		this.monomials = monomials;
+		int n = 4;
+		while (n < 2 * capacity && n < 1 << 30) {
+			n *= 2;
+		}
+		keys = new int[n];
+		Arrays.fill(keys, -1);
+		coefficients = new long[n];
+	}
+
+	private static Polynomial term(Monomials monomials, int monomial, long coefficient) {
+		Polynomial p = new Polynomial(monomials, 1);
+		p.addStored(monomial, coefficient, false);
+		return p;
+	}
+
+	/**
+	 * Converts an expression to polynomial normal form, without recursion
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return the expression as a polynomial
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 * @throws ArithmeticException
+	 *             if a literal or a coefficient does not fit in a long
+	 */
+	public static Polynomial of(BinaryTree<String> tree) throws IllegalArgumentException, ArithmeticException {
+		if (!Assignment.isArithmeticExpression(tree)) {
+			throw new IllegalArgumentException();
+		}
+		Monomials monomials = new Monomials();
+		// post-order walk: positions still to finish, and finished operands
+		ArrayDeque<Position<String>> walk = new ArrayDeque<Position<String>>();
+		ArrayDeque<Polynomial> operands = new ArrayDeque<Polynomial>();
+		Position<String> p = tree.root();
+		Position<String> last = null;
+		while (p != null || !walk.isEmpty()) {
+			if (p != null) {
+				walk.push(p);
+				p = tree.left(p);
+				continue;
+			}
+			Position<String> top = walk.peek();
+			Position<String> right = tree.right(top);
+			if (right != null && !right.equals(last)) {
+				p = right;
+				continue;
+			}
+			walk.pop();
+			last = top;
+			Term term = Term.of(top);
+			if (right == null) {
+				if (term.isLiteral()) {
+					if (!term.isLong()) {
+						throw new ArithmeticException("Literal does not fit in a long: " + term);
+					}
+					operands.push(term(monomials, CONSTANT, term.longValue()));
+				}
+				else {
+					operands.push(term(monomials, monomials.variable(term), 1));
+				}
+				continue;
+			}
+			Polynomial b = operands.pop();
+			Polynomial a = operands.pop();
+			switch (term.operator()) {
+			case '+':
+				operands.push(a.plus(b, 1));
+				break;
+			case '-':
+				operands.push(a.plus(b, -1));
+				break;
+			default:
+				operands.push(a.times(b));
+			}
+		}
+		return operands.pop();
+	}
+
+	/**
+	 * @return the number of monomials with a non-zero coefficient
+	 */
+	public int size() {
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != -1 && coefficients[i] != 0) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the highest degree of a monomial, or -1 for the zero polynomial
+	 */
+	public int degree() {
+		int degree = -1;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != -1 && coefficients[i] != 0) {
+				degree = Math.max(degree, monomials.monomials[keys[i]].length);
+			}
+		}
+		return degree;
+	}
+
+	/**
+	 * Converts the polynomial back to an expression: the monomials are added
+	 * from the highest degree down (and in order of variable names within a
+	 * degree), each written as its coefficient (unless it is 1) times its
+	 * variables. Negative coefficients are subtracted where possible.
+	 *
+	 * Example: 5x^2 - 3y + 1 is "+ - * 5 * x x * 3 y 1"
+	 *
+	 * @return a tree representing the polynomial
+	 */
+	public LinkedBinaryTree<String> toTree() {
+		ExpressionTree tree = new ExpressionTree();
+		int[] order = sortedMonomials();
+		if (order.length == 0) {
+			tree.addRoot(Term.literal(0));
+			tree.markValidated();
+			return tree;
+		}
+		Position<String> sum = null;
+		for (int m : order) {
+			long c = coefficient(m);
+			if (sum == null) {
+				sum = monomial(tree, m, c);
+			}
+			else if (c < 0 && c != Long.MIN_VALUE) {
+				sum = tree.detachedNode(Term.MINUS, sum, monomial(tree, m, -c));
+			}
+			else {
+				sum = tree.detachedNode(Term.PLUS, sum, monomial(tree, m, c));
+			}
+		}
+		tree.setRoot(sum);
+		tree.markValidated();
+		return tree;
+	}
+
+	/**
+	 * @return the polynomial as an expression in prefix notation
+	 */
+	@Override
+	public String toString() {
+		return Assignment.tree2prefix(toTree());
+	}
+
+	// builds c times the monomial m
+	private Position<String> monomial(ExpressionTree tree, int m, long c) {
+		int[] ids = monomials.monomials[m];
+		Term[] factors = new Term[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			factors[i] = monomials.variables[ids[i]];
+		}
+		Arrays.sort(factors, (a, b) -> a.text().compareTo(b.text()));
+		Position<String> product = null;
+		for (int i = factors.length - 1; i >= 0; i--) {
+			Position<String> factor = tree.detachedNode(factors[i]);
+			product = product == null ? factor : tree.detachedNode(Term.TIMES, factor, product);
+		}
+		if (product == null) {
+			return tree.detachedNode(Term.literal(c));
+		}
+		return c == 1 ? product : tree.detachedNode(Term.TIMES, tree.detachedNode(Term.literal(c)), product);
+	}
+
+	private int[] sortedMonomials() {
+		int[] order = new int[size()];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != -1 && coefficients[i] != 0) {
+				order[n++] = keys[i];
+			}
+		}
+		// compare by descending degree, then by variable names
+		String[] names = new String[monomials.count];
+		Integer[] boxed = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			boxed[i] = order[i];
+			names[order[i]] = name(order[i]);
+		}
+		Arrays.sort(boxed, (a, b) -> {
+			int da = monomials.monomials[a].length;
+			int db = monomials.monomials[b].length;
+			return da != db ? db - da : names[a].compareTo(names[b]);
+		});
+		for (int i = 0; i < n; i++) {
+			order[i] = boxed[i];
+		}
+		return order;
+	}
+
+	// the variable names of a monomial, sorted and separated by spaces
+	private String name(int m) {
+		int[] ids = monomials.monomials[m];
+		String[] names = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			names[i] = monomials.variables[ids[i]].text();
+		}
+		Arrays.sort(names);
+		return String.join(" ", names);
+	}
+
+	/*
+	 * Arithmetic on polynomials of the same conversion. The operands of a
+	 * conversion are each used once, so a sum is accumulated in place in the
+	 * larger of its two operands: adding up n monomials then takes O(n) time
+	 * rather than copying the growing sum at every step.
+	 */
+
+	private Polynomial plus(Polynomial other, int sign) {
+		if (used >= other.used) {
+			addAll(other, sign);
+			return this;
+		}
+		if (sign < 0) {
+			other.sign = -other.sign;
+		}
+		other.addAll(this, 1);
+		return other;
+	}
+
+	private Polynomial times(Polynomial other) {
+		Polynomial product = new Polynomial(monomials, (int) Math.min((long) used * other.used, 1 << 16));
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == -1 || coefficients[i] == 0) {
+				continue;
+			}
+			for (int j = 0; j < other.keys.length; j++) {
+				if (other.keys[j] != -1 && other.coefficients[j] != 0) {
+					product.addStored(monomials.product(keys[i], other.keys[j]),
+							Math.multiplyExact(coefficients[i], other.coefficients[j]), sign != other.sign);
+				}
+			}
+		}
+		return product;
+	}
+
+	private void addAll(Polynomial other, int sign) {
+		boolean subtract = sign * other.sign != this.sign;
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.keys[i] != -1 && other.coefficients[i] != 0) {
+				addStored(other.keys[i], other.coefficients[i], subtract);
+			}
+		}
+	}
+
+	// adds (or subtracts) a value to the stored coefficient of a monomial
+	private void addStored(int monomial, long coefficient, boolean subtract) {
+		int mask = keys.length - 1;
+		int i = slot(monomial) & mask;
+		while (keys[i] != -1 && keys[i] != monomial) {
+			i = (i + 1) & mask;
+		}
+		if (keys[i] == -1) {
+			keys[i] = monomial;
+			coefficients[i] = subtract ? Math.negateExact(coefficient) : coefficient;
+			if (2 * ++used > keys.length) {
+				grow();
+			}
+		}
+		else if (subtract) {
+			coefficients[i] = Math.subtractExact(coefficients[i], coefficient);
+		}
+		else {
+			coefficients[i] = Math.addExact(coefficients[i], coefficient);
+		}
+	}
+
+	private long coefficient(int monomial) {
+		int mask = keys.length - 1;
+		int i = slot(monomial) & mask;
+		while (keys[i] != monomial) {
+			i = (i + 1) & mask;
+		}
+		return sign < 0 ? Math.negateExact(coefficients[i]) : coefficients[i];
+	}
+
+	private static int slot(int monomial) {
+		int h = monomial * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		long[] oldCoefficients = coefficients;
+		keys = new int[2 * oldKeys.length];
+		Arrays.fill(keys, -1);
+		coefficients = new long[keys.length];
+		used = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != -1) {
+				addStored(oldKeys[i], oldCoefficients[i], false);
+			}
+		}
+	}
+}
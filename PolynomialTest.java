@@ -0,0 +1,60 @@
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class PolynomialTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// like terms are collected into polynomial normal form
+	@Test(timeout = 2000)
+	public void testPolynomial() {
+		Polynomial p = Polynomial.of(Assignment.prefix2tree("+ * 2 x * 3 x"));
+		assertEquals("* 5 x", p.toString());
+		assertEquals(1, p.size());
+		assertEquals("0", Polynomial.of(Assignment.prefix2tree("- * x y * y x")).toString());
+		assertEquals(-1, Polynomial.of(Assignment.prefix2tree("- * x y * y x")).degree());
+		p = Polynomial.of(Assignment.prefix2tree("* + x 1 - x 1"));
+		assertEquals("- * x x 1", p.toString());
+		p = Polynomial.of(Assignment.prefix2tree("+ - * 5 * x x * 3 y 1"));
+		assertEquals("+ - * 5 * x x * 3 y 1", p.toString());
+		assertEquals(2, p.degree());
+		p = Polynomial.of(Assignment.prefix2tree("- * -2 * b a * a + b 7"));
+		assertEquals("- * -3 * a b * 7 a", p.toString());
+
+		// many like terms collapse into one
+		String sum = "+ * 3 * x y + * y x ".repeat(50000);
+		p = Polynomial.of(Assignment.prefix2tree(sum + "z"));
+		assertEquals("+ * 200000 * x y z", p.toString());
+
+		thrown.expect(ArithmeticException.class);
+		Polynomial.of(Assignment.prefix2tree("* 9223372036854775807 * 2 x"));
+	}
+
+	// a sum of many distinct monomials is built in place whichever way it is nested; the bound only catches a return to quadratic time
+	@Test(timeout = 60000)
+	public void testPolynomialLargeSum() {
+		int n = 50000;
+		StringBuilder leftDeep = new StringBuilder();
+		StringBuilder rightDeep = new StringBuilder();
+		StringBuilder operands = new StringBuilder();
+		for (int i = 1; i < n; i++) {
+			leftDeep.append(i % 2 == 0 ? "+ " : "- ");
+			rightDeep.append("- p").append(i - 1).append(' ');
+		}
+		for (int i = 0; i < n; i++) {
+			operands.append(" p").append(i);
+		}
+		// p0 - (p1 - (p2 - ...)) alternates signs just as ((p0 - p1) + p2) - ...
+		Polynomial p = Polynomial.of(Assignment.prefix2tree(rightDeep + "p" + (n - 1)));
+		assertEquals(n, p.size());
+		assertEquals(1, p.degree());
+		String expected = Polynomial.of(Assignment.prefix2tree(leftDeep.reverse().toString().trim() + operands))
+				.toString();
+		assertEquals(expected, p.toString());
+	}
+}
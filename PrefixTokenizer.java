@@ -0,0 +1,145 @@
+/**
+ * A cursor over an arithmetic expression in prefix notation.
+ *
+ * Tokens are maximal runs of non-whitespace characters. The tokenizer scans
+ * the underlying CharSequence in place and only records where the current
+ * token starts and ends, so walking an expression never copies it. The
+ * operators +, - and * are recognised from the character data and returned
+ * as shared constants, so only operands are ever turned into new Strings.
+ *
+ * Example: for "+ 2 15" successive calls to next() position the cursor on
+ * "+", "2" and "15", then return false.
+ */
+public class PrefixTokenizer {
+
+	// shared operator tokens, so operators never need a substring
+	static final String PLUS = "+";
+	static final String MINUS = "-";
+	static final String TIMES = "*";
+
+	private final CharSequence input;
+	private final int limit;
+	// the current token is input[start, end)
+	private int start;
+	private int end;
+
+	/**
+	 * Creates a tokenizer over a whole expression
+	 *
+	 * @param input
+	 *            - the characters of an expression in prefix notation
+	 * @throws IllegalArgumentException
+	 *             if input was null
+	 */
+	public PrefixTokenizer(CharSequence input) throws IllegalArgumentException {
+		this(input, 0, input == null ? 0 : input.length());
+	}
+
+	/**
+	 * Creates a tokenizer over the region [from, to) of input
+	 *
+	 * @param input
+	 *            - the characters containing an expression in prefix notation
+	 * @param from
+	 *            - index of the first character of the expression
+	 * @param to
+	 *            - index one past the last character of the expression
+	 * @throws IllegalArgumentException
+	 *             if input was null or the region is out of bounds
+	 */
+	public PrefixTokenizer(CharSequence input, int from, int to) throws IllegalArgumentException {
+		if (input == null) {
+			throw new IllegalArgumentException("Expression was null");
+		}
+		if (from < 0 || to > input.length() || from > to) {
+			throw new IllegalArgumentException("Region is out of bounds");
+		}
+		this.input = input;
+		this.limit = to;
+		this.start = from;
+		this.end = from;
+	}
+
+	/**
+	 * Advances the cursor to the next token
+	 *
+	 * @return true if the cursor is now on a token, false if the input is
+	 *         exhausted
+	 */
+	public boolean next() {
+		int i = end;
+		while (i < limit && isSeparator(input.charAt(i))) {
+			i++;
+		}
+		start = i;
+		while (i < limit && !isSeparator(input.charAt(i))) {
+			i++;
+		}
+		end = i;
+		return start < end;
+	}
+
+	/**
+	 * @return the input being tokenized
+	 */
+	public CharSequence input() {
+		return input;
+	}
+
+	/**
+	 * @return index of the first character of the current token
+	 */
+	public int tokenStart() {
+		return start;
+	}
+
+	/**
+	 * @return index one past the last character of the current token
+	 */
+	public int tokenEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the operator character of the current token (+, - or *), or 0
+	 *         if the current token is not an operator
+	 */
+	public char operator() {
+		if (end - start != 1) {
+			return 0;
+		}
+		char c = input.charAt(start);
+		return (c == '+' || c == '-' || c == '*') ? c : 0;
+	}
+
+	/**
+	 * @return true if the current token is one of the binary operators
+	 */
+	public boolean isOperator() {
+		return operator() != 0;
+	}
+
+	/**
+	 * Returns the current token as a String. Operators are returned as shared
+	 * constants; only operands are copied out of the input.
+	 *
+	 * @return the current token
+	 */
+	public String token() {
+		switch (operator()) {
+		case '+':
+			return PLUS;
+		case '-':
+			return MINUS;
+		case '*':
+			return TIMES;
+		default:
+			return input.subSequence(start, end).toString();
+		}
+	}
+
+	// spaces, tabs and line breaks all separate tokens
+	private static boolean isSeparator(char c) {
+		return c <= ' ';
+	}
+}
@@ -0,0 +1,345 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import textbook.BinaryTree;
+import textbook.LinkedBinaryTree;
+
+/**
+ * A set of algebraic rewrite rules, each written as a pair of prefix patterns.
+ *
+ * Example: "* ?a 0 -> 0" rewrites any product whose right operand is 0 to 0,
+ * and "- + ?a ?b ?b -> ?a" rewrites (a+b)-b to a. Elements starting with '?'
+ * are pattern variables, which match any subexpression; a variable used more
+ * than once only matches identical subexpressions. Every other element must
+ * match exactly, except that literals match by value (so "0" also matches
+ * "-0"). The left side of a rule must be an operator.
+ *
+ * Rules are indexed by the operator at the root of their left side and by
+ * what they require of its two operands (a particular operator, literal or
+ * variable, or anything). Finding the rules for a node therefore takes four
+ * lookups, however many rules there are, and only rules that can match are
+ * tried. When several rules match, the one added first is used.
+ *
+ * Rewriting works bottom-up on an ExpressionDag, so identical subexpressions
+ * are rewritten only once, and repeats until no rule applies; numbers are
+ * folded as by simplify. A set of rules that can rewrite an expression back
+ * to itself (such as "+ ?a ?b -> + ?b ?a") is detected and rejected.
+ *
+ * Rule sets are not safe to change while they are in use by another thread.
+ */
+public class RewriteRules {
+
+	/**
+	 * One rule: patterns are nodes of a private factory, and variables are
+	 * numbered in the order they first appear on the left side
+	 */
+	private static final class Rule {
+		final int index;
+		final ExpressionDag.Node left;
+		final ExpressionDag.Node right;
+		final HashMap<Term, Integer> variables;
+
+		Rule(int index, ExpressionDag.Node left, ExpressionDag.Node right, HashMap<Term, Integer> variables) {
+			this.index = index;
+			this.left = left;
+			this.right = right;
+			this.variables = variables;
+		}
+	}
+
+	/**
+	 * Index key: an operator and what its operands must be (null for anything)
+	 */
+	private static final class Key {
+		final Term operator;
+		final Term left;
+		final Term right;
+
+		Key(Term operator, Term left, Term right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return operator == k.operator && same(left, k.left) && same(right, k.right);
+		}
+
+		@Override
+		public int hashCode() {
+			int h = operator.hashCode();
+			h = 31 * h + (left == null ? 0 : left.hashCode());
+			return 31 * h + (right == null ? 0 : right.hashCode());
+		}
+
+		private static boolean same(Term a, Term b) {
+			return a == null ? b == null : a.matches(b);
+		}
+	}
+
+	private static final String ARROW = "->";
+
+	// factory holding the patterns of every rule set
+	private final ExpressionDag patterns = new ExpressionDag();
+	private final HashMap<Key, ArrayList<Rule>> index = new HashMap<Key, ArrayList<Rule>>();
+	private int count = 0;
+
+	/** Constructs an empty set of rules. */
+	public RewriteRules() {
+	}
+
+	/**
+	 * @return a new rule set holding the identities of simplifyFancy
+	 */
+	public static RewriteRules fancy() {
+		RewriteRules rules = new RewriteRules();
+		rules.add("+ ?a 0 -> ?a");
+		rules.add("+ 0 ?a -> ?a");
+		rules.add("- ?a ?a -> 0");
+		rules.add("- ?a 0 -> ?a");
+		rules.add("* ?a 0 -> 0");
+		rules.add("* 0 ?a -> 0");
+		rules.add("* 1 ?a -> ?a");
+		rules.add("* ?a 1 -> ?a");
+		return rules;
+	}
+
+	/**
+	 * @return the number of rules
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Adds a rule, which is used after all the rules added before it
+	 *
+	 * @param rule
+	 *            - a rule of the form "pattern -> replacement", both in prefix
+	 *            notation
+	 * @throws IllegalArgumentException
+	 *             if rule is null or not of that form, its left side is not an
+	 *             operator, or its right side uses a variable that its left
+	 *             side does not
+	 */
+	public void add(String rule) throws IllegalArgumentException {
+		int arrow = rule == null ? -1 : rule.indexOf(ARROW);
+		if (arrow < 0) {
+			throw new IllegalArgumentException("Rule must have the form \"pattern -> replacement\": " + rule);
+		}
+		ExpressionDag.Node left = patterns.intern(rule.substring(0, arrow));
+		ExpressionDag.Node right = patterns.intern(rule.substring(arrow + ARROW.length()));
+		if (left.isLeaf()) {
+			throw new IllegalArgumentException("A rule must rewrite an operator: " + rule);
+		}
+		HashMap<Term, Integer> variables = new HashMap<Term, Integer>();
+		collectVariables(left, variables, true);
+		collectVariables(right, variables, false);
+		Key key = new Key(left.term(), shape(left.left()), shape(left.right()));
+		ArrayList<Rule> rules = index.get(key);
+		if (rules == null) {
+			rules = new ArrayList<Rule>();
+			index.put(key, rules);
+		}
+		rules.add(new Rule(count++, left, right, variables));
+	}
+
+	// numbers the variables of a left side, or checks those of a right side
+	private static void collectVariables(ExpressionDag.Node pattern, HashMap<Term, Integer> variables,
+			boolean define) {
+		ArrayDeque<ExpressionDag.Node> walk = new ArrayDeque<ExpressionDag.Node>();
+		walk.push(pattern);
+		while (!walk.isEmpty()) {
+			ExpressionDag.Node n = walk.pop();
+			if (!n.isLeaf()) {
+				walk.push(n.right());
+				walk.push(n.left());
+			}
+			else if (isVariable(n.term()) && !variables.containsKey(n.term())) {
+				if (!define) {
+					throw new IllegalArgumentException("Variable is not bound by the pattern: " + n.term());
+				}
+				variables.put(n.term(), variables.size());
+			}
+		}
+	}
+
+	/**
+	 * Rewrites a tree with these rules until none of them applies
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param mode
+	 *            - the arithmetic used to fold numbers
+	 * @return a new tree holding the rewritten expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or mode was null
+	 * @throws IllegalStateException
+	 *             if the rules rewrite some expression back to itself
+	 */
+	public LinkedBinaryTree<String> rewrite(BinaryTree<String> tree, NumericMode mode)
+			throws IllegalArgumentException, IllegalStateException {
+		if (mode == null) {
+			throw new IllegalArgumentException();
+		}
+		ExpressionDag dag = new ExpressionDag();
+		return ExpressionDag.toTree(rewrite(dag, dag.intern(tree), mode));
+	}
+
+	/*
+	 * Fixpoint driver: finds the normal form of every node below root, in
+	 * post-order and without recursion. A node is normal once its operands
+	 * are normal and no rule applies to it; when a rule does apply, the
+	 * normal form of its result is found next.
+	 */
+	private ExpressionDag.Node rewrite(ExpressionDag dag, ExpressionDag.Node root, NumericMode mode) {
+		HashMap<ExpressionDag.Node, ExpressionDag.Node> normal = new HashMap<ExpressionDag.Node, ExpressionDag.Node>();
+		HashSet<ExpressionDag.Node> pending = new HashSet<ExpressionDag.Node>();
+		ArrayDeque<ExpressionDag.Node> walk = new ArrayDeque<ExpressionDag.Node>();
+		walk.push(root);
+		pending.add(root);
+		while (!walk.isEmpty()) {
+			ExpressionDag.Node n = walk.peek();
+			ExpressionDag.Node next = null;
+			ExpressionDag.Node result = null;
+			if (n.isLeaf()) {
+				result = n;
+			}
+			else {
+				ExpressionDag.Node left = normal.get(n.left());
+				ExpressionDag.Node right = normal.get(n.right());
+				if (left == null) {
+					next = n.left();
+				}
+				else if (right == null) {
+					next = n.right();
+				}
+				else {
+					ExpressionDag.Node rebuilt = dag.node(n.term(), left, right);
+					ExpressionDag.Node rewritten = rewriteRoot(dag, rebuilt, mode);
+					if (rewritten == null) {
+						result = rebuilt;
+					}
+					else {
+						result = normal.get(rewritten);
+						if (result == null) {
+							next = rewritten;
+						}
+					}
+				}
+			}
+			if (next != null) {
+				if (!pending.add(next)) {
+					// only a rule can lead back to a node still being rewritten
+					throw new IllegalStateException("Rules rewrite an expression back to itself");
+				}
+				walk.push(next);
+			}
+			else {
+				walk.pop();
+				pending.remove(n);
+				normal.put(n, result);
+			}
+		}
+		return normal.get(root);
+	}
+
+	/*
+	 * Applies the first matching rule to an operator whose operands are in
+	 * normal form, or folds two numbers; returns null if neither applies
+	 */
+	private ExpressionDag.Node rewriteRoot(ExpressionDag dag, ExpressionDag.Node n, NumericMode mode) {
+		Term left = shape(n.left());
+		Term right = shape(n.right());
+		// the four index entries that can hold matching rules
+		Rule best = null;
+		ExpressionDag.Node[] bindings = null;
+		for (int i = 0; i < 4; i++) {
+			ArrayList<Rule> rules = index.get(new Key(n.term(), (i & 1) == 0 ? left : null, (i & 2) == 0 ? right : null));
+			if (rules == null) {
+				continue;
+			}
+			for (Rule rule : rules) {
+				if (best != null && rule.index > best.index) {
+					break;
+				}
+				ExpressionDag.Node[] b = new ExpressionDag.Node[rule.variables.size()];
+				if (match(rule, rule.left, n, b)) {
+					best = rule;
+					bindings = b;
+					break;
+				}
+			}
+		}
+		if (best != null) {
+			return instantiate(dag, best, best.right, bindings);
+		}
+		if (isNumber(n.left()) && isNumber(n.right())) {
+			return dag.leaf(mode.apply(n.term(), n.left().term(), n.right().term()));
+		}
+		return null;
+	}
+
+	private static boolean match(Rule rule, ExpressionDag.Node pattern, ExpressionDag.Node n,
+			ExpressionDag.Node[] bindings) {
+		Term p = pattern.term();
+		if (pattern.isLeaf() && isVariable(p)) {
+			int v = rule.variables.get(p);
+			if (bindings[v] == null) {
+				bindings[v] = n;
+				return true;
+			}
+			// interned, so identical subexpressions are the same node
+			return bindings[v] == n;
+		}
+		if (pattern.isLeaf() != n.isLeaf() || !sameElement(p, n.term())) {
+			return false;
+		}
+		return pattern.isLeaf()
+				|| (match(rule, pattern.left(), n.left(), bindings) && match(rule, pattern.right(), n.right(), bindings));
+	}
+
+	private static ExpressionDag.Node instantiate(ExpressionDag dag, Rule rule, ExpressionDag.Node pattern,
+			ExpressionDag.Node[] bindings) {
+		if (pattern.isLeaf()) {
+			return isVariable(pattern.term()) ? bindings[rule.variables.get(pattern.term())] : dag.leaf(pattern.term());
+		}
+		return dag.node(pattern.term(), instantiate(dag, rule, pattern.left(), bindings),
+				instantiate(dag, rule, pattern.right(), bindings));
+	}
+
+	/*
+	 * What a rule requires of an operand, for the index: its element (with
+	 * literals made canonical, since they match by value), or null for
+	 * anything
+	 */
+	private static Term shape(ExpressionDag.Node n) {
+		Term t = n.term();
+		if (n.isLeaf() && isVariable(t)) {
+			return null;
+		}
+		return t.isLong() ? Term.literal(t.longValue()) : t;
+	}
+
+	private static boolean sameElement(Term pattern, Term t) {
+		if (pattern.isLong() && t.isLong()) {
+			return pattern.longValue() == t.longValue();
+		}
+		return pattern.matches(t);
+	}
+
+	private static boolean isVariable(Term t) {
+		return t.isVariable() && t.text().charAt(0) == '?';
+	}
+
+	private static boolean isNumber(ExpressionDag.Node n) {
+		return n.isLeaf() && n.term().isLiteral();
+	}
+}
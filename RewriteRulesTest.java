@@ -0,0 +1,45 @@
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class RewriteRulesTest {
+	
+	// Set up JUnit to be able to check for expected exceptions
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// pattern rules give the same results as simplifyFancy, and can be extended
+	@Test(timeout = 2000)
+	public void testRewriteRules() {
+		RewriteRules fancy = RewriteRules.fancy();
+		String[] expressions = { "- * 1 x x", "+ x * 0 y", "- + 2 x + 2 x", "+ 007 0", "* -0 z",
+				"* 2 + x 3", "+ * 2 3 - y * 4 5", "- - 1 2 - 1 2" };
+		for (String expression : expressions) {
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+			assertTrue(expression, Assignment.equals(Assignment.simplifyFancy(tree),
+					fancy.rewrite(tree, NumericMode.INT)));
+		}
+
+		RewriteRules rules = new RewriteRules();
+		for (int i = 0; i < 500; i++) {
+			rules.add("* ?a c" + i + " -> * c" + i + " ?a");
+		}
+		rules.add("- + ?a ?b ?b -> ?a");
+		rules.add("- + ?a ?b ?a -> ?b");
+		assertEquals(502, rules.size());
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("- + * x c7 y y");
+		assertEquals("* c7 x", Assignment.tree2prefix(rules.rewrite(tree, NumericMode.INT)));
+		tree = Assignment.prefix2tree("- + z * 2 3 z");
+		assertEquals("6", Assignment.tree2prefix(rules.rewrite(tree, NumericMode.INT)));
+		tree = Assignment.prefix2tree("- + y z x");
+		assertEquals("- + y z x", Assignment.tree2prefix(rules.rewrite(tree, NumericMode.INT)));
+
+		rules.add("+ ?a ?b -> + ?b ?a");
+		thrown.expect(IllegalStateException.class);
+		rules.rewrite(Assignment.prefix2tree("+ x 1"), NumericMode.INT);
+	}
+}
@@ -0,0 +1,323 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import textbook.BinaryTree;
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * A set of rules for simplifying arithmetic expressions, stored as a table.
+ *
+ * The operands of an operator are simplified first, and each is then one of
+ * four kinds: the number 0, the number 1, another number, or anything else (a
+ * variable or a larger subtree). For every operator the table holds one
+ * action for each pair of kinds: keep the operator, fold it into a single
+ * number, or replace it by its left operand, its right operand or 0. A rule
+ * set can also say that an operator applied to two identical operands (as in
+ * X-X) is 0.
+ *
+ * Simplifying a node therefore costs one table lookup whatever rules are in
+ * force, and PLAIN and FANCY run the same code. Subtrees nested deeper than
+ * a fixed limit are walked using parent links rather than recursion, so deep
+ * trees can be simplified.
+ *
+ * Large trees can also be simplified by a ForkJoinPool: an operator whose two
+ * operands are both large subtrees simplifies them as separate tasks, and
+ * smaller subtrees are simplified sequentially. Subtree sizes are read from
+ * the summaries cached by ExpressionTree, which are all computed before the
+ * first task is forked; other trees are split to a fixed depth instead.
+ */
+public final class SimplifyRules {
+
+	// actions
+	private static final byte KEEP = 0;
+	private static final byte FOLD = 1;
+	private static final byte LEFT = 2;
+	private static final byte RIGHT = 3;
+	private static final byte ZERO = 4;
+
+	// kinds of operand
+	private static final int IS_ZERO = 0;
+	private static final int IS_ONE = 1;
+	private static final int IS_NUMBER = 2;
+	private static final int IS_OTHER = 3;
+	private static final int KINDS = 4;
+
+	/**
+	 * The rules of Assignment.simplify: an operator whose operands are both
+	 * numbers is folded
+	 */
+	public static final SimplifyRules PLAIN = new SimplifyRules(
+			// rows: left operand is 0, 1, another number, anything else
+			// columns: right operand, in the same order
+			// K keep, F fold, L left operand, R right operand, 0 zero
+			"FFFK FFFK FFFK KKKK", // +
+			"FFFK FFFK FFFK KKKK", // -
+			"FFFK FFFK FFFK KKKK", // *
+			"");
+
+	/**
+	 * The rules of Assignment.simplifyFancy: folding, and the identities
+	 * X+0=X, 0+X=X, X-0=X, X-X=0, X*0=0, 0*X=0, X*1=X and 1*X=X
+	 */
+	public static final SimplifyRules FANCY = new SimplifyRules(
+			"LRRR LFFK LFFK LKKK", // +
+			"LFFK LFFK LFFK LKKK", // -
+			"0000 0RRR 0LFK 0LKK", // *
+			"-");
+
+	// deeper subtrees are simplified without recursion
+	private static final int MAX_DEPTH = 1000;
+	// subtrees smaller than this are not split between tasks
+	private static final int PARALLEL_THRESHOLD = 1 << 13;
+	// for trees without cached sizes, subtrees deeper than this are not split
+	private static final int PARALLEL_DEPTH = 10;
+
+	// actions[(operator * KINDS + left kind) * KINDS + right kind]
+	private final byte[] actions = new byte[3 * KINDS * KINDS];
+	// operators for which X op X is 0, by operator index
+	private final boolean[] cancels = new boolean[3];
+
+	private SimplifyRules(String plus, String minus, String times, String cancelling) {
+		String[] tables = { plus, minus, times };
+		for (int op = 0; op < 3; op++) {
+			String table = tables[op].replace(" ", "");
+			for (int cell = 0; cell < KINDS * KINDS; cell++) {
+				actions[op * KINDS * KINDS + cell] = action(table.charAt(cell));
+			}
+			cancels[op] = cancelling.indexOf("+-*".charAt(op)) >= 0;
+		}
+	}
+
+	private static byte action(char c) {
+		switch (c) {
+		case 'F':
+			return FOLD;
+		case 'L':
+			return LEFT;
+		case 'R':
+			return RIGHT;
+		case '0':
+			return ZERO;
+		default:
+			return KEEP;
+		}
+	}
+
+	/**
+	 * Simplifies a tree with these rules
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param mode
+	 *            - the arithmetic used to fold numbers
+	 * @return a new tree holding the simplified expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or mode was null
+	 * @throws NumberFormatException
+	 *             if a number to be folded cannot be represented in mode
+	 */
+	public LinkedBinaryTree<String> simplify(BinaryTree<String> tree, NumericMode mode)
+			throws IllegalArgumentException, NumberFormatException {
+		if (mode == null || !Assignment.isArithmeticExpression(tree)) {
+			throw new IllegalArgumentException();
+		}
+		ExpressionTree out = new ExpressionTree();
+		out.setRoot(simplify(tree, tree.root(), out, mode, 0));
+		out.markValidated();
+		return out;
+	}
+
+	/**
+	 * Simplifies a tree with these rules, splitting the work between the
+	 * threads of a pool. The result is the same as that of simplify.
+	 *
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param mode
+	 *            - the arithmetic used to fold numbers
+	 * @param pool
+	 *            - the pool to run on
+	 * @return a new tree holding the simplified expression
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or mode or pool was
+	 *             null
+	 * @throws NumberFormatException
+	 *             if a number to be folded cannot be represented in mode
+	 */
+	public LinkedBinaryTree<String> simplify(BinaryTree<String> tree, NumericMode mode, ForkJoinPool pool)
+			throws IllegalArgumentException, NumberFormatException {
+		if (mode == null || pool == null || !Assignment.isArithmeticExpression(tree)) {
+			throw new IllegalArgumentException();
+		}
+		if (ExpressionTree.cachesSummary(tree.root())) {
+			// summarizing the root summarizes (and parses) every node, so the
+			// tasks only read the cached values
+			ExpressionTree.subtreeSize(tree.root());
+		}
+		ExpressionTree out = new ExpressionTree();
+		out.setRoot(pool.invoke(new SimplifyTask(tree, tree.root(), out, mode, 0)));
+		out.markValidated();
+		return out;
+	}
+
+	/**
+	 * Simplifies one subtree, forking a task for its left operand if both of
+	 * its operands are large. Tasks only create detached nodes of out, which
+	 * touches no state shared between them.
+	 */
+	private final class SimplifyTask extends RecursiveTask<Position<String>> {
+		private static final long serialVersionUID = 1L;
+
+		private final BinaryTree<String> tree;
+		private final Position<String> p;
+		private final ExpressionTree out;
+		private final NumericMode mode;
+		private final int depth;
+
+		SimplifyTask(BinaryTree<String> tree, Position<String> p, ExpressionTree out, NumericMode mode, int depth) {
+			this.tree = tree;
+			this.p = p;
+			this.out = out;
+			this.mode = mode;
+			this.depth = depth;
+		}
+
+		@Override
+		protected Position<String> compute() {
+			Term term = Term.of(p);
+			if (!term.isOperator() || depth == MAX_DEPTH || !isLarge(tree.left(p)) || !isLarge(tree.right(p))) {
+				return simplify(tree, p, out, mode, depth);
+			}
+			SimplifyTask left = new SimplifyTask(tree, tree.left(p), out, mode, depth + 1);
+			left.fork();
+			Position<String> right = new SimplifyTask(tree, tree.right(p), out, mode, depth + 1).compute();
+			return combine(out, term, left.join(), right, mode);
+		}
+
+		private boolean isLarge(Position<String> q) {
+			if (ExpressionTree.cachesSummary(q)) {
+				return ExpressionTree.subtreeSize(q) >= PARALLEL_THRESHOLD;
+			}
+			return depth < PARALLEL_DEPTH;
+		}
+	}
+
+	/*
+	 * Simplifies the subtree rooted at p into a detached node of out. In a
+	 * valid expression the operators are exactly the internal nodes, so only
+	 * the terms need to be looked at. Recursion is fastest for the shallow
+	 * trees that are usual, so it is only given up below MAX_DEPTH.
+	 */
+	private Position<String> simplify(BinaryTree<String> tree, Position<String> p, ExpressionTree out,
+			NumericMode mode, int depth) {
+		Term term = Term.of(p);
+		if (!term.isOperator()) {
+			return out.detachedNode(term);
+		}
+		if (depth == MAX_DEPTH) {
+			return simplifyDeep(tree, p, out, mode);
+		}
+		Position<String> left = simplify(tree, tree.left(p), out, mode, depth + 1);
+		Position<String> right = simplify(tree, tree.right(p), out, mode, depth + 1);
+		return combine(out, term, left, right, mode);
+	}
+
+	/*
+	 * Simplifies the subtree rooted at top without recursion: a post-order
+	 * walk over parent links, with the simplified operands on a stack
+	 */
+	private Position<String> simplifyDeep(BinaryTree<String> tree, Position<String> top, ExpressionTree out,
+			NumericMode mode) {
+		ArrayDeque<Position<String>> operands = new ArrayDeque<Position<String>>();
+		Position<String> p = firstInPostorder(tree, top);
+		while (true) {
+			Term term = Term.of(p);
+			if (term.isOperator()) {
+				Position<String> right = operands.pop();
+				Position<String> left = operands.pop();
+				operands.push(combine(out, term, left, right, mode));
+			}
+			else {
+				operands.push(out.detachedNode(term));
+			}
+			if (p.equals(top)) {
+				return operands.pop();
+			}
+			Position<String> parent = tree.parent(p);
+			if (p.equals(tree.left(parent))) {
+				p = firstInPostorder(tree, tree.right(parent));
+			}
+			else {
+				p = parent;
+			}
+		}
+	}
+
+	private static Position<String> firstInPostorder(BinaryTree<String> tree, Position<String> p) {
+		while (Term.of(p).isOperator()) {
+			p = tree.left(p);
+		}
+		return p;
+	}
+
+	/**
+	 * Simplifies an operator applied to two operands that are already
+	 * simplified
+	 *
+	 * @param out
+	 *            - the tree being built
+	 * @param operator
+	 *            - Term.PLUS, Term.MINUS or Term.TIMES
+	 * @param left
+	 *            - the simplified left operand, a detached node of out
+	 * @param right
+	 *            - the simplified right operand, a detached node of out
+	 * @param mode
+	 *            - the arithmetic used to fold numbers
+	 * @return a detached node of out holding the simplified expression
+	 */
+	Position<String> combine(ExpressionTree out, Term operator, Position<String> left, Position<String> right,
+			NumericMode mode) {
+		int op = index(operator.operator());
+		if (cancels[op] && Assignment.equals(out, out, left, right)) {
+			return out.detachedNode(Term.literal(0));
+		}
+		switch (actions[(op * KINDS + kind(left)) * KINDS + kind(right)]) {
+		case FOLD:
+			return out.detachedNode(mode.apply(operator, Term.of(left), Term.of(right)));
+		case LEFT:
+			return left;
+		case RIGHT:
+			return right;
+		case ZERO:
+			return out.detachedNode(Term.literal(0));
+		default:
+			return out.detachedNode(operator, left, right);
+		}
+	}
+
+	private static int index(char operator) {
+		switch (operator) {
+		case '+':
+			return 0;
+		case '-':
+			return 1;
+		default:
+			return 2;
+		}
+	}
+
+	private static int kind(Position<String> p) {
+		// only leaves hold literals
+		Term term = Term.of(p);
+		if (!term.isLiteral()) {
+			return IS_OTHER;
+		}
+		if (term.isLiteral(0)) {
+			return IS_ZERO;
+		}
+		return term.isLiteral(1) ? IS_ONE : IS_NUMBER;
+	}
+}
@@ -0,0 +1,535 @@
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import textbook.Position;
+
+/**
+ * The parsed form of one element of an arithmetic expression: one of the
+ * binary operators +, - and *, an integer literal, or a variable.
+ *
+ * Terms are created once, when an expression is read, so the operations in
+ * Assignment can inspect and fold elements without re-parsing their Strings.
+ * Operators are singletons and variables are interned, so two terms for the
+ * same operator or variable are always the same object. The text of a literal
+ * produced by folding is only formatted when it is first asked for.
+ *
+ * Any element that is not an operator and not an integer is a variable, as in
+ * "x", "c" or "3.5". Integers of any size, with or without a sign (as in "-5"
+ * or "+5", which Integer.parseInt also accepts), are literals; those that do
+ * not fit in a long keep their value as text (or as a BigInteger if they
+ * were computed).
+ */
+public final class Term {
+
+	/**
+	 * The three sorts of element that can appear in an expression
+	 */
+	public enum Kind {
+		OPERATOR, LITERAL, VARIABLE
+	}
+
+	public static final Term PLUS = new Term(Kind.OPERATOR, '+', 0, PrefixTokenizer.PLUS, true);
+	public static final Term MINUS = new Term(Kind.OPERATOR, '-', 0, PrefixTokenizer.MINUS, true);
+	public static final Term TIMES = new Term(Kind.OPERATOR, '*', 0, PrefixTokenizer.TIMES, true);
+
+	// literals in this range are shared
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final Term[] CACHE = new Term[CACHE_HIGH - CACHE_LOW + 1];
+	static {
+		for (int i = 0; i < CACHE.length; i++) {
+			CACHE[i] = new Term(Kind.LITERAL, (char) 0, CACHE_LOW + i, null, true);
+		}
+	}
+
+	private static final SymbolTable SYMBOLS = new SymbolTable();
+
+	private final Kind kind;
+	private final char operator;
+	private final long value;
+	// false for literals whose digits do not fit in a long
+	private final boolean exact;
+	// the value of a computed literal that does not fit in a long
+	private final BigInteger big;
+	// the text as read, or null for literals created by folding
+	private final String spelling;
+	// formatted lazily for literals created by folding
+	private String formatted;
+	// for variables, a number given by the symbol table, unique among the
+	// variables in use; final, so a term read from the table without
+	// locking always has it
+	private final int symbol;
+
+	private Term(Kind kind, char operator, long value, String spelling, boolean exact) {
+		this(kind, operator, value, spelling, exact, null, -1);
+	}
+
+	private Term(Kind kind, char operator, long value, String spelling, boolean exact, BigInteger big, int symbol) {
+		this.kind = kind;
+		this.operator = operator;
+		this.value = value;
+		this.spelling = spelling;
+		this.exact = exact;
+		this.big = big;
+		this.symbol = symbol;
+	}
+
+	/**
+	 * Returns the term for a literal value
+	 *
+	 * @param value
+	 *            - an integer
+	 * @return a term whose text is the decimal representation of value
+	 */
+	public static Term literal(long value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+			return CACHE[(int) value - CACHE_LOW];
+		}
+		return new Term(Kind.LITERAL, (char) 0, value, null, true);
+	}
+
+	/**
+	 * Returns the term for a literal value of any size
+	 *
+	 * @param value
+	 *            - an integer
+	 * @return a term whose text is the decimal representation of value
+	 * @throws IllegalArgumentException
+	 *             if value is null
+	 */
+	public static Term literal(BigInteger value) throws IllegalArgumentException {
+		if (value == null) {
+			throw new IllegalArgumentException("Value was null");
+		}
+		if (value.bitLength() < 64) {
+			return literal(value.longValue());
+		}
+		return new Term(Kind.LITERAL, (char) 0, 0, null, false, value, -1);
+	}
+
+	/**
+	 * Returns the term for the variable with the given name
+	 *
+	 * @param name
+	 *            - the name of a variable
+	 * @return the interned term for name
+	 * @throws IllegalArgumentException
+	 *             if name is null, or is an operator or an integer
+	 */
+	public static Term variable(String name) throws IllegalArgumentException {
+		Term term = name == null ? null : parse(name);
+		if (term == null || term.kind != Kind.VARIABLE) {
+			throw new IllegalArgumentException("Not a variable name: " + name);
+		}
+		return term;
+	}
+
+	/**
+	 * Parses one element of an expression
+	 *
+	 * @param element
+	 *            - an operator, integer or variable name
+	 * @return the corresponding term, or null if element is null
+	 */
+	public static Term parse(String element) {
+		if (element == null) {
+			return null;
+		}
+		return parse(element, 0, element.length(), element);
+	}
+
+	/**
+	 * Parses the element stored in the region [start, end) of input, without
+	 * copying the characters unless a new literal or variable has to be
+	 * remembered
+	 *
+	 * @param input
+	 *            - characters containing the element
+	 * @param start
+	 *            - index of the first character of the element
+	 * @param end
+	 *            - index one past the last character of the element
+	 * @return the corresponding term
+	 */
+	public static Term parse(CharSequence input, int start, int end) {
+		return parse(input, start, end, null);
+	}
+
+	// text, when not null, is input[start, end) as a String
+	private static Term parse(CharSequence input, int start, int end, String text) {
+		int length = end - start;
+		if (length == 1) {
+			switch (input.charAt(start)) {
+			case '+':
+				return PLUS;
+			case '-':
+				return MINUS;
+			case '*':
+				return TIMES;
+			default:
+			}
+		}
+		// a sign is allowed, as Integer.parseInt allows it: "-5" and "+5" are
+		// both literals
+		char sign = length > 0 ? input.charAt(start) : 0;
+		int digits = (sign == '-' || sign == '+') ? start + 1 : start;
+		if (digits == end) {
+			return SYMBOLS.intern(input, start, end, text);
+		}
+		long value = 0;
+		boolean exact = true;
+		for (int i = digits; i < end; i++) {
+			char c = input.charAt(i);
+			if (c < '0' || c > '9') {
+				return SYMBOLS.intern(input, start, end, text);
+			}
+			// accumulate negatively, so Long.MIN_VALUE is representable
+			if (value < (Long.MIN_VALUE + (c - '0')) / 10) {
+				exact = false;
+			}
+			value = value * 10 - (c - '0');
+		}
+		if (sign != '-') {
+			if (value == Long.MIN_VALUE) {
+				exact = false;
+			}
+			value = -value;
+		}
+		// the usual spelling of a number can be recreated from its value
+		boolean usual = sign != '+' && !(input.charAt(digits) == '0' && (end - digits > 1 || digits > start));
+		if (exact && usual) {
+			if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+				return CACHE[(int) value - CACHE_LOW];
+			}
+			return new Term(Kind.LITERAL, (char) 0, value, text, true);
+		}
+		// keep the original spelling (e.g. "007", "-0" or "+5") for output
+		String spelling = text != null ? text : input.subSequence(start, end).toString();
+		return new Term(Kind.LITERAL, (char) 0, exact ? value : 0, spelling, exact);
+	}
+
+	/**
+	 * @return a small number identifying this variable, unique among the
+	 *         variables in use, or -1 if this is not a variable; the number
+	 *         of a variable that has been garbage collected is reused
+	 */
+	int symbol() {
+		return symbol;
+	}
+
+	/**
+	 * Returns the term stored at a position. Positions of trees built by
+	 * Assignment carry their term already; for any other tree the element is
+	 * parsed.
+	 *
+	 * @param p
+	 *            - a position in a tree of expression elements
+	 * @return the term for the element at p, or null if the element is null
+	 */
+	public static Term of(Position<String> p) {
+		if (p instanceof TermPosition) {
+			return ((TermPosition) p).term();
+		}
+		return parse(p.getElement());
+	}
+
+	public Kind kind() {
+		return kind;
+	}
+
+	public boolean isOperator() {
+		return kind == Kind.OPERATOR;
+	}
+
+	public boolean isLiteral() {
+		return kind == Kind.LITERAL;
+	}
+
+	public boolean isVariable() {
+		return kind == Kind.VARIABLE;
+	}
+
+	/**
+	 * @return true if this is a literal with the given value
+	 */
+	public boolean isLiteral(long v) {
+		return kind == Kind.LITERAL && exact && value == v;
+	}
+
+	/**
+	 * @return true if this is a literal whose value fits in an int and whose
+	 *         text is the usual spelling of that value, so that it can be
+	 *         replaced by any other term with the same value
+	 */
+	boolean isPlainInt() {
+		if (kind != Kind.LITERAL || !exact || value != (int) value) {
+			return false;
+		}
+		if (spelling == null || spelling.length() == 1) {
+			return true;
+		}
+		// no leading zero, and not "-0"
+		return spelling.charAt(spelling.charAt(0) == '-' ? 1 : 0) != '0';
+	}
+
+	/**
+	 * @return the operator character (+, - or *), or 0 if this is not an
+	 *         operator
+	 */
+	public char operator() {
+		return operator;
+	}
+
+	/**
+	 * @return the value of this literal as an int
+	 * @throws NumberFormatException
+	 *             if this is not a literal, or its value does not fit in an
+	 *             int
+	 */
+	public int intValue() throws NumberFormatException {
+		if (kind != Kind.LITERAL || !exact || value != (int) value) {
+			throw new NumberFormatException("Not an int literal: " + text());
+		}
+		return (int) value;
+	}
+
+	/**
+	 * @return true if this is a literal whose value fits in a long
+	 */
+	boolean isLong() {
+		return kind == Kind.LITERAL && exact;
+	}
+
+	/**
+	 * @return the value of this literal as a long
+	 * @throws NumberFormatException
+	 *             if this is not a literal, or its value does not fit in a
+	 *             long
+	 */
+	public long longValue() throws NumberFormatException {
+		if (!isLong()) {
+			throw new NumberFormatException("Not a long literal: " + text());
+		}
+		return value;
+	}
+
+	/**
+	 * @return the value of this literal, whatever its size
+	 * @throws NumberFormatException
+	 *             if this is not a literal
+	 */
+	public BigInteger bigValue() throws NumberFormatException {
+		if (kind != Kind.LITERAL) {
+			throw new NumberFormatException("Not a literal: " + text());
+		}
+		if (exact) {
+			return BigInteger.valueOf(value);
+		}
+		return big != null ? big : new BigInteger(spelling);
+	}
+
+	/**
+	 * @return the element text of this term, as stored in a tree
+	 */
+	public String text() {
+		if (spelling != null) {
+			return spelling;
+		}
+		String t = formatted;
+		if (t == null) {
+			t = big != null ? big.toString() : Long.toString(value);
+			formatted = t;
+		}
+		return t;
+	}
+
+	/**
+	 * Tests if two terms stand for the same element text
+	 *
+	 * @param other
+	 *            - another term (or null)
+	 * @return true if both terms have the same text
+	 */
+	public boolean matches(Term other) {
+		if (this == other) {
+			return true;
+		}
+		if (other == null || kind != other.kind) {
+			return false;
+		}
+		if (kind == Kind.LITERAL && value != other.value) {
+			return false;
+		}
+		// operators and variables are unique, but literals may be spelled differently
+		return kind == Kind.LITERAL && text().equals(other.text());
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Term && matches((Term) o);
+	}
+
+	@Override
+	public int hashCode() {
+		// consistent with matches: equal literals have equal values
+		if (kind == Kind.LITERAL && exact) {
+			return Long.hashCode(value);
+		}
+		return text().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return text();
+	}
+
+	private boolean matchesText(CharSequence input, int start, int end) {
+		String t = text();
+		if (t.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < t.length(); i++) {
+			if (t.charAt(i) != input.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Interned variable terms, looked up by their characters so that reading
+	 * a variable that has been seen before allocates nothing.
+	 *
+	 * The table only holds weak references, so a variable that is no longer
+	 * used anywhere is garbage collected, and its number is given to the next
+	 * new variable; a process that reads ever new names therefore keeps only
+	 * the ones in use, and numbers stay as small as the number of those.
+	 *
+	 * Lookups do not lock; new symbols are added, and collected ones are
+	 * reclaimed, under the table's lock. A lookup that races with an insert
+	 * may see the new reference before its referent, in which case it finds
+	 * nothing and retries under the lock. The fields of a variable, its
+	 * symbol included, are final, so a term that is found is seen as it was
+	 * constructed.
+	 */
+	private static final class SymbolTable {
+		private volatile Symbol[] table = new Symbol[64];
+		// slots holding a reference, whether or not it has been cleared
+		private int used = 0;
+		// numbers given out so far
+		private int next = 0;
+		// numbers of collected variables, given out before new ones
+		private int[] free = new int[16];
+		private int freeCount = 0;
+		private final ReferenceQueue<Term> collected = new ReferenceQueue<Term>();
+
+		/** A table entry: a variable, with what is needed once it is gone. */
+		private static final class Symbol extends WeakReference<Term> {
+			final int hash;
+			final int number;
+
+			Symbol(Term term, int hash, ReferenceQueue<Term> queue) {
+				super(term, queue);
+				this.hash = hash;
+				this.number = term.symbol;
+			}
+		}
+
+		Term intern(CharSequence input, int start, int end, String text) {
+			int hash = hash(input, start, end);
+			Term found = find(table, input, start, end, hash);
+			if (found != null) {
+				return found;
+			}
+			synchronized (this) {
+				Symbol[] current = table;
+				found = find(current, input, start, end, hash);
+				if (found != null) {
+					return found;
+				}
+				reclaim();
+				if (2 * (used + 1) > current.length) {
+					current = rebuild(current);
+				}
+				int number = freeCount > 0 ? free[--freeCount] : next++;
+				String name = text != null ? text : input.subSequence(start, end).toString();
+				Term term = new Term(Kind.VARIABLE, (char) 0, 0, name, true, null, number);
+				insert(current, new Symbol(term, hash, collected));
+				used++;
+				table = current;
+				return term;
+			}
+		}
+
+		// makes the numbers of collected variables available again; their
+		// cleared entries stay in the table until it is next rebuilt
+		private void reclaim() {
+			for (Reference<? extends Term> r = collected.poll(); r != null; r = collected.poll()) {
+				if (freeCount == free.length) {
+					free = Arrays.copyOf(free, 2 * freeCount);
+				}
+				free[freeCount++] = ((Symbol) r).number;
+			}
+		}
+
+		private static Term find(Symbol[] table, CharSequence input, int start, int end, int hash) {
+			int mask = table.length - 1;
+			for (int i = hash & mask;; i = (i + 1) & mask) {
+				Symbol symbol = table[i];
+				if (symbol == null) {
+					return null;
+				}
+				if (symbol.hash == hash) {
+					Term term = symbol.get();
+					if (term != null && term.matchesText(input, start, end)) {
+						return term;
+					}
+				}
+			}
+		}
+
+		private static void insert(Symbol[] table, Symbol symbol) {
+			int mask = table.length - 1;
+			int i = symbol.hash & mask;
+			while (table[i] != null) {
+				i = (i + 1) & mask;
+			}
+			table[i] = symbol;
+		}
+
+		// copies the live entries into a new table, at most a quarter full
+		private Symbol[] rebuild(Symbol[] old) {
+			int live = 0;
+			for (Symbol symbol : old) {
+				if (symbol != null && symbol.get() != null) {
+					live++;
+				}
+			}
+			int length = 64;
+			while (4 * (live + 1) > length) {
+				length *= 2;
+			}
+			Symbol[] table = new Symbol[length];
+			used = 0;
+			for (Symbol symbol : old) {
+				// an entry cleared now is reclaimed once it is enqueued
+				if (symbol != null && symbol.get() != null) {
+					insert(table, symbol);
+					used++;
+				}
+			}
+			return table;
+		}
+
+		private static int hash(CharSequence input, int start, int end) {
+			int h = 0;
+			for (int i = start; i < end; i++) {
+				h = 31 * h + input.charAt(i);
+			}
+			return h ^ (h >>> 16);
+		}
+	}
+}
@@ -0,0 +1,13 @@
+import textbook.Position;
+
+/**
+ * A position in an expression tree that keeps the parsed form of its element,
+ * so that operations can read it without parsing the element String.
+ */
+public interface TermPosition extends Position<String> {
+
+	/**
+	 * @return the parsed element stored at this position (or null)
+	 */
+	Term term();
+}
@@ -0,0 +1,145 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Shared code for the benchmark drivers in this directory.
+ *
+ * There is no benchmark harness in this tree, so each driver is a class
+ * with a main method that times its loops with System.nanoTime. Every
+ * measurement is repeated: the first rounds warm the JVM up and are thrown
+ * away, and the best and median of the rest are reported. These classes are
+ * not tests and are not compiled with the main source directory. To run
+ * one, compile it after the main classes, into the same directory:
+ *
+ * javac -d out *.java
+ * javac -cp out -d out bench/*.java
+ * java -cp out EvaluateBench
+ *
+ * The drivers only call the public API, and the parts of it that predate
+ * an optimization stay available, so a driver can be compiled against an
+ * earlier commit to compare before and after by hand.
+ *
+ * Numbers are only comparable on one machine, and are noisy on a machine
+ * with one or two cores.
+ */
+final class Bench {
+
+	/** The rounds thrown away before the ones that are reported. */
+	static final int WARMUP = 5;
+	/** The rounds that are reported. */
+	static final int ROUNDS = 10;
+
+	// results are added here, so that the JVM cannot drop the timed work
+	static volatile long sink;
+
+	private Bench() {
+	}
+
+	/**
+	 * A piece of work to time, which returns something derived from its
+	 * result
+	 */
+	interface Work {
+		long run() throws Exception;
+	}
+
+	/**
+	 * Times work over WARMUP + ROUNDS rounds and prints the best and median
+	 * of the last ROUNDS
+	 *
+	 * @param name
+	 *            - printed in front of the times
+	 * @param per
+	 *            - the number of items one round handles, such as nodes or
+	 *            rows; the times are printed per item
+	 * @param work
+	 *            - one round
+	 * @return the median time of one round in nanoseconds
+	 */
+	static double time(String name, long per, Work work) throws Exception {
+		long[] times = new long[ROUNDS];
+		for (int round = -WARMUP; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			sink += work.run();
+			long elapsed = System.nanoTime() - start;
+			if (round >= 0) {
+				times[round] = elapsed;
+			}
+		}
+		Arrays.sort(times);
+		double median = times[ROUNDS / 2];
+		System.out.printf("%-40s best %10.3f ms  median %10.3f ms  %10.2f ns/item%n", name, times[0] / 1e6,
+				median / 1e6, median / per);
+		return median;
+	}
+
+	/**
+	 * Runs work once, after warming it up, and returns the bytes it
+	 * allocated on the current thread
+	 */
+	static long allocated(Work work) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		for (int round = 0; round < WARMUP; round++) {
+			sink += work.run();
+		}
+		long before = threads.getCurrentThreadAllocatedBytes();
+		sink += work.run();
+		return threads.getCurrentThreadAllocatedBytes() - before;
+	}
+
+	/**
+	 * @return the bytes in use on the heap after a full collection
+	 */
+	static long heapUsed() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Writes a random expression in prefix notation: an operator is chosen
+	 * at each level until depth reaches 0, and one time in ten a leaf is
+	 * chosen early. A leaf is x, 0, 1 or a number below 100.
+	 *
+	 * @param out
+	 *            - where the expression is written, each element followed by
+	 *            a space
+	 * @param random
+	 *            - the source of choices, seeded so runs can be repeated
+	 * @param depth
+	 *            - the largest depth of the tree
+	 */
+	static void expression(StringBuilder out, Random random, int depth) {
+		// a stack of the depths still to be written replaces recursion
+		int[] pending = new int[depth + 2];
+		int top = 0;
+		pending[top++] = depth;
+		while (top > 0) {
+			int d = pending[--top];
+			if (d == 0 || random.nextInt(10) == 0) {
+				int choice = random.nextInt(6);
+				out.append(choice < 2 ? "x" : choice == 2 ? "0" : choice == 3 ? "1" : String.valueOf(random.nextInt(100)))
+						.append(' ');
+			}
+			else {
+				out.append("+-*".charAt(random.nextInt(3))).append(' ');
+				pending[top++] = d - 1;
+				pending[top++] = d - 1;
+			}
+		}
+	}
+
+	/**
+	 * @return a random expression of the given depth
+	 * @see #expression(StringBuilder, Random, int)
+	 */
+	static String expression(long seed, int depth) {
+		StringBuilder out = new StringBuilder();
+		expression(out, new Random(seed), depth);
+		return out.toString();
+	}
+}
@@ -0,0 +1,132 @@
+import java.util.HashMap;
+import java.util.Random;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Times the ways of computing the value of an expression for many values of
+ * its variables: substituting the values and simplifying, walking the tree
+ * with Bindings, the postfix interpreter of CompiledExpression, the hidden
+ * classes of ExpressionJit, and BatchEvaluator over columns of rows, with
+ * the scalar loops and, when it is available, the vector backend.
+ *
+ * Run with: java -Xmx2g -cp out EvaluateBench [rows]
+ *
+ * The batch is run over the given number of rows (10,000,000 by default,
+ * which needs about 400MB for its columns), and again over 100,000 rows,
+ * which stay in the cache. Add --add-modules jdk.incubator.vector, after
+ * compiling the vector directory as VectorKernels explains, to include the
+ * vector backend. See Bench for how to compile it.
+ */
+public final class EvaluateBench {
+
+	// the expression of the batch comparison, with three variables
+	private static final String BATCH = "+ - * a 3 * b b + * c 7 - a 11";
+	// rows for substitute and simplify, which are far slower
+	private static final int SUBSTITUTED_ROWS = 100000;
+	// rows that stay in the cache
+	private static final int CACHED_ROWS = 100000;
+
+	private EvaluateBench() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+		// one row at a time: only + and -, so that no value overflows
+		final LinkedBinaryTree<String> tree = Assignment
+				.prefix2tree(Bench.expression(5, 7).replace('x', 'u').replace('*', '+'));
+		final int evaluations = 200000;
+		System.out.println("nodes " + tree.size() + ", evaluations " + evaluations);
+		final HashMap<String, Integer> map = new HashMap<String, Integer>();
+		Bench.time("substitute and simplify", evaluations / 100, () -> {
+			long total = 0;
+			for (int i = 0; i < evaluations / 100; i++) {
+				map.put("u", i);
+				total += Assignment.simplify(Assignment.substitute(tree, map)).size();
+			}
+			return total;
+		});
+		final Bindings bindings = new Bindings();
+		Bench.time("evaluate, tree walk", evaluations, () -> {
+			long total = 0;
+			for (int i = 0; i < evaluations; i++) {
+				bindings.set("u", i);
+				total += Assignment.evaluate(tree, bindings);
+			}
+			return total;
+		});
+		final CompiledExpression compiled = CompiledExpression.compile(tree);
+		Bench.time("CompiledExpression", evaluations, () -> {
+			long[] values = new long[1];
+			long total = 0;
+			for (int i = 0; i < evaluations; i++) {
+				values[0] = i;
+				total += compiled.evaluate(values);
+			}
+			return total;
+		});
+		final ExpressionJit.HotExpression hot = new ExpressionJit(1, 1).compile(tree);
+		// the first evaluation reaches the threshold and generates the class
+		Bench.sink += hot.evaluate(new long[1]);
+		Bench.time("ExpressionJit, generated=" + hot.isGenerated(), evaluations, () -> {
+			long[] values = new long[1];
+			long total = 0;
+			for (int i = 0; i < evaluations; i++) {
+				values[0] = i;
+				total += hot.evaluate(values);
+			}
+			return total;
+		});
+
+		// many rows at once
+		final LinkedBinaryTree<String> batchTree = Assignment.prefix2tree(BATCH);
+		final BatchEvaluator scalar = BatchEvaluator.compile(batchTree);
+		final BatchEvaluator vector = new BatchEvaluator(scalar.expression(), true);
+		final long[][] columns = new long[scalar.expression().variableCount()][rows];
+		Random random = new Random(1);
+		for (long[] column : columns) {
+			for (int i = 0; i < rows; i++) {
+				column[i] = random.nextInt(100000);
+			}
+		}
+		System.out.println("batch " + BATCH + ", rows " + rows + ", vector available "
+				+ BatchEvaluator.isVectorAvailable());
+		final HashMap<String, Integer> row = new HashMap<String, Integer>();
+		double substituted = Bench.time("substitute and simplify, per row", SUBSTITUTED_ROWS, () -> {
+			long total = 0;
+			for (int i = 0; i < SUBSTITUTED_ROWS; i++) {
+				for (int slot = 0; slot < columns.length; slot++) {
+					row.put(scalar.expression().variable(slot), (int) columns[slot][i]);
+				}
+				total += Assignment.simplify(Assignment.substitute(batchTree, row)).size();
+			}
+			return total;
+		}) / SUBSTITUTED_ROWS;
+		final long[] result = new long[rows];
+		double batch = Bench.time("BatchEvaluator, scalar", rows, () -> {
+			scalar.evaluate(columns, result, 0, rows);
+			return result[rows - 1];
+		}) / rows;
+		double cached = Bench.time("BatchEvaluator, scalar, cached rows", CACHED_ROWS * 100L, () -> {
+			for (int k = 0; k < 100; k++) {
+				scalar.evaluate(columns, result, 0, CACHED_ROWS);
+			}
+			return result[CACHED_ROWS - 1];
+		}) / (CACHED_ROWS * 100.0);
+		System.out.printf("batch speedup over substitute and simplify: %.0fx, %.0fx with cached rows%n",
+				substituted / batch, substituted / cached);
+		if (vector.isVectorized()) {
+			Bench.time("BatchEvaluator, vector", rows, () -> {
+				vector.evaluate(columns, result, 0, rows);
+				return result[rows - 1];
+			});
+			Bench.time("BatchEvaluator, vector, cached rows", CACHED_ROWS * 100L, () -> {
+				for (int k = 0; k < 100; k++) {
+					vector.evaluate(columns, result, 0, CACHED_ROWS);
+				}
+				return result[CACHED_ROWS - 1];
+			});
+		}
+	}
+}
@@ -0,0 +1,83 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Times many independent expressions: reading a file of them line by line
+ * against mapping it with ExpressionFile, and parsing, simplifying and
+ * printing a list of them with ExpressionBatch, on pools of one thread and
+ * of every core.
+ *
+ * Run with: java -cp out FileBench [lines]
+ *
+ * A file of the given number of random expressions (1,000,000 by default,
+ * about 60MB) is written to the temporary directory and deleted at the end.
+ * See Bench for how to compile it.
+ */
+public final class FileBench {
+
+	private FileBench() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final Path file = Files.createTempFile("expressions", ".txt");
+		try {
+			Random random = new Random(11);
+			final List<String> expressions = new ArrayList<String>(lines);
+			try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)) {
+				for (int i = 0; i < lines; i++) {
+					StringBuilder expression = new StringBuilder();
+					Bench.expression(expression, random, 5);
+					String line = expression.toString().trim();
+					expressions.add(line);
+					out.write(line);
+					out.newLine();
+				}
+			}
+			System.out.println("lines " + lines + ", bytes " + Files.size(file));
+
+			// the same work both ways: parse every line and count the nodes
+			Bench.time("readLine and prefix2tree", lines, () -> {
+				long total = 0;
+				try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+					for (String line = in.readLine(); line != null; line = in.readLine()) {
+						total += Assignment.prefix2tree(line).size();
+					}
+				}
+				return total;
+			});
+			final ExpressionFile mapped = ExpressionFile.map(file);
+			final ForkJoinPool one = new ForkJoinPool(1);
+			final ForkJoinPool all = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+			Bench.time("ExpressionFile, pool of 1", lines, () -> count(mapped, one));
+			Bench.time("ExpressionFile, pool of " + all.getParallelism(), lines, () -> count(mapped, all));
+
+			// parse, simplify and print
+			Bench.time("ExpressionBatch, pool of 1", lines, () -> ExpressionBatch.run(expressions, one).size());
+			Bench.time("ExpressionBatch, pool of " + all.getParallelism(), lines,
+					() -> ExpressionBatch.run(expressions, all).size());
+			System.out.println(ExpressionBatch.run(expressions, all));
+			one.shutdown();
+			all.shutdown();
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	private static long count(ExpressionFile file, ForkJoinPool pool) {
+		final LongAdder nodes = new LongAdder();
+		file.forEach(pool, (LinkedBinaryTree<String> tree, long offset) -> nodes.add(tree.size()));
+		return nodes.sum();
+	}
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Times the ways of simplifying an expression: the rule tables behind
+ * simplify and simplifyFancy with both kinds of arithmetic, in-place
+ * folding, the pattern rule engine with few and with many rules, the
+ * polynomial normal form, common subexpression elimination, and the
+ * fork/join simplify on pools of one thread and of every core.
+ *
+ * Run with: java -cp out SimplifyBench [depth]
+ *
+ * The large expression is random, of the given depth (21 by default, about
+ * 800k nodes). See Bench for how to compile it.
+ */
+public final class SimplifyBench {
+
+	private SimplifyBench() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 21;
+		final String expression = Bench.expression(1, depth);
+		final LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+		final int nodes = tree.size();
+		System.out.println("nodes " + nodes);
+
+		// rule tables
+		Bench.time("simplify", nodes, () -> Assignment.simplify(tree).size());
+		Bench.time("simplifyFancy", nodes, () -> Assignment.simplifyFancy(tree).size());
+		Bench.time("simplifyFancy, EXACT", nodes, () -> Assignment.simplifyFancy(tree, NumericMode.EXACT).size());
+		Bench.time("parse and simplifyInPlace", nodes,
+				() -> Assignment.simplifyInPlace(Assignment.prefix2tree(expression)).size());
+
+		// pattern rules: extra rules keyed on distinct operands add no work
+		// per node
+		final RewriteRules fancy = RewriteRules.fancy();
+		final RewriteRules many = RewriteRules.fancy();
+		for (int i = 0; i < 500; i++) {
+			many.add("+-*".charAt(i % 3) + " ?a c" + i + " -> ?a");
+		}
+		Bench.time("rewrite, " + fancy.size() + " rules", nodes, () -> fancy.rewrite(tree, NumericMode.INT).size());
+		Bench.time("rewrite, " + many.size() + " rules", nodes, () -> many.rewrite(tree, NumericMode.INT).size());
+
+		// a polynomial with 50,000 terms, summed one term at a time
+		final int terms = 50000;
+		StringBuilder sum = new StringBuilder();
+		for (int i = 1; i < terms; i++) {
+			sum.append("- p").append(i - 1).append(' ');
+		}
+		final LinkedBinaryTree<String> polynomial = Assignment.prefix2tree(sum + "p" + (terms - 1));
+		Bench.time("Polynomial.of, 50,000 terms", terms, () -> Polynomial.of(polynomial).size());
+
+		// common subexpressions: the same trees walked in full, and over their
+		// shared form
+		final List<LinkedBinaryTree<String>> repeated = repeated(200);
+		final List<CommonSubexpressions> shared = new ArrayList<CommonSubexpressions>();
+		long repeatedNodes = 0;
+		long distinct = 0;
+		for (LinkedBinaryTree<String> t : repeated) {
+			CommonSubexpressions cse = CommonSubexpressions.of(t);
+			shared.add(cse);
+			repeatedNodes += t.size();
+			distinct += cse.size();
+		}
+		System.out.println("repeated trees " + repeated.size() + ", nodes " + repeatedNodes + ", distinct " + distinct);
+		final HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put("u", 1);
+		final Bindings bindings = Bindings.of(map);
+		Bench.time("evaluate, whole trees", repeatedNodes, () -> {
+			long total = 0;
+			for (LinkedBinaryTree<String> t : repeated) {
+				total += Assignment.evaluate(t, bindings);
+			}
+			return total;
+		});
+		Bench.time("evaluate, shared subexpressions", repeatedNodes, () -> {
+			long total = 0;
+			for (CommonSubexpressions cse : shared) {
+				total += cse.evaluate(bindings);
+			}
+			return total;
+		});
+
+		// fork/join: only splits where both operands are large
+		final ForkJoinPool one = new ForkJoinPool(1);
+		final ForkJoinPool all = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		Bench.time("simplifyFancy, sequential", nodes, () -> Assignment.simplifyFancy(tree).size());
+		Bench.time("simplifyFancy, pool of 1", nodes,
+				() -> Assignment.simplifyFancy(tree, NumericMode.INT, one).size());
+		Bench.time("simplifyFancy, pool of " + all.getParallelism(), nodes,
+				() -> Assignment.simplifyFancy(tree, NumericMode.INT, all).size());
+		one.shutdown();
+		all.shutdown();
+	}
+
+	// trees with many repeated subtrees: a small expression in u, with u
+	// replaced by another small expression in u three times over, keeping
+	// those that can be evaluated at u = 1 without overflow
+	private static List<LinkedBinaryTree<String>> repeated(int count) {
+		Random random = new Random(7);
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put("u", 1);
+		Bindings bindings = Bindings.of(map);
+		List<LinkedBinaryTree<String>> trees = new ArrayList<LinkedBinaryTree<String>>();
+		for (int k = 0; k < count; k++) {
+			StringBuilder outer = new StringBuilder();
+			Bench.expression(outer, random, 6);
+			String expression = outer.toString().replace("x", "u");
+			for (int level = 0; level < 3; level++) {
+				StringBuilder inner = new StringBuilder();
+				Bench.expression(inner, random, 4);
+				expression = expression.replace("u", inner.toString().replace("x", "u").trim());
+			}
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+			try {
+				Assignment.evaluate(tree, bindings);
+				trees.add(tree);
+			}
+			catch (ArithmeticException e) {
+				// too large to time with exact arithmetic
+			}
+		}
+		return trees;
+	}
+}
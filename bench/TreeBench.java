@@ -0,0 +1,74 @@
+import java.util.HashMap;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Times building, comparing, checking and printing expression trees: the
+ * tokenizer and iterative builder of prefix2tree, the typed terms parsed
+ * from each element, the two tree representations, the cached subtree
+ * summaries used by equals, the validated mark, and the prefix and infix
+ * writers. It also prints the bytes allocated per node by the operations
+ * that build their result from detached nodes, and the heap used by one
+ * large tree in each representation.
+ *
+ * Run with: java -cp out TreeBench [depth]
+ *
+ * The expression is random, of the given depth (20 by default, about 400k
+ * nodes). See Bench for how to compile it.
+ */
+public final class TreeBench {
+
+	private TreeBench() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		final String expression = Bench.expression(1, depth);
+		final LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+		final LinkedBinaryTree<String> copy = Assignment.prefix2tree(expression);
+		final int nodes = tree.size();
+		final HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put("x", 7);
+		System.out.println("nodes " + nodes);
+
+		// parsing
+		Bench.time("prefix2tree", nodes, () -> Assignment.prefix2tree(expression).size());
+		Bench.time("prefix2tree, simplifying", nodes, () -> Assignment.prefix2tree(expression, true).size());
+		Bench.time("ArrayExpressionTree.parse", nodes, () -> ArrayExpressionTree.parse(expression).size());
+
+		// comparing and checking
+		Bench.time("equals, cached summaries", nodes, () -> Assignment.equals(tree, copy) ? 1 : 0);
+		Bench.time("isArithmeticExpression, validated", nodes,
+				() -> Assignment.isArithmeticExpression(tree) ? 1 : 0);
+
+		// printing
+		Bench.time("tree2prefix", nodes, () -> Assignment.tree2prefix(tree).length());
+		Bench.time("tree2prefix into a StringBuilder", nodes, () -> {
+			StringBuilder out = new StringBuilder();
+			Assignment.tree2prefix(tree, out);
+			return out.length();
+		});
+		Bench.time("tree2infix", nodes, () -> Assignment.tree2infix(tree).length());
+
+		// allocation of the operations that build from detached nodes
+		System.out.printf("%-40s %6.1f bytes/node%n", "allocated by prefix2tree",
+				Bench.allocated(() -> Assignment.prefix2tree(expression).size()) / (double) nodes);
+		System.out.printf("%-40s %6.1f bytes/node%n", "allocated by simplify",
+				Bench.allocated(() -> Assignment.simplify(tree).size()) / (double) nodes);
+		System.out.printf("%-40s %6.1f bytes/node%n", "allocated by simplifyFancy",
+				Bench.allocated(() -> Assignment.simplifyFancy(tree).size()) / (double) nodes);
+		System.out.printf("%-40s %6.1f bytes/node%n", "allocated by substitute(map)",
+				Bench.allocated(() -> Assignment.substitute(tree, map).size()) / (double) nodes);
+
+		// footprint of one tree in each representation
+		long empty = Bench.heapUsed();
+		LinkedBinaryTree<String> linked = Assignment.prefix2tree(expression);
+		long withLinked = Bench.heapUsed();
+		ArrayExpressionTree array = ArrayExpressionTree.parse(expression);
+		long withArray = Bench.heapUsed();
+		System.out.printf("%-40s %6.1f bytes/node%n", "heap of a LinkedBinaryTree", (withLinked - empty) / (double) nodes);
+		System.out.printf("%-40s %6.1f bytes/node%n", "heap of an ArrayExpressionTree",
+				(withArray - withLinked) / (double) nodes);
+		Bench.sink += linked.size() + array.size();
+	}
+}
@@ -0,0 +1,199 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The loops of BatchEvaluator written with the jdk.incubator.vector API, so
+ * that each operator works on as many rows at once as the processor's widest
+ * vectors hold, whether or not the JVM would have vectorized the plain loop.
+ * Rows left over after the last whole vector are done one at a time.
+ *
+ * This class needs the jdk.incubator.vector module both to be compiled and
+ * to run, so it is kept out of the main source directory, which builds
+ * without it. To include it, compile it after the main classes, into the
+ * same directory:
+ *
+ * javac -d out *.java
+ * javac --add-modules jdk.incubator.vector -cp out -d out vector/VectorKernels.java
+ *
+ * and run with --add-modules jdk.incubator.vector. BatchEvaluator only loads
+ * it by name, and uses its own loops if it cannot.
+ */
+final class VectorKernels extends BatchEvaluator.Kernels {
+
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	VectorKernels() {
+	}
+
+	@Override
+	void add(long[] a, long[] b, long[] out, int n) {
+		LongVector overflow = LongVector.zero(SPECIES);
+		int k = 0;
+		for (int bound = SPECIES.loopBound(n); k < bound; k += SPECIES.length()) {
+			LongVector x = LongVector.fromArray(SPECIES, a, k);
+			LongVector y = LongVector.fromArray(SPECIES, b, k);
+			LongVector r = x.add(y);
+			overflow = overflow.or(x.lanewise(VectorOperators.XOR, r).and(y.lanewise(VectorOperators.XOR, r)));
+			r.intoArray(out, k);
+		}
+		long tail = 0;
+		for (; k < n; k++) {
+			long x = a[k];
+			long y = b[k];
+			long r = x + y;
+			tail |= (x ^ r) & (y ^ r);
+			out[k] = r;
+		}
+		checkSign(overflow.reduceLanes(VectorOperators.OR) | tail);
+	}
+
+	@Override
+	void addScalar(long[] a, long y, long[] out, int n) {
+		LongVector ys = LongVector.broadcast(SPECIES, y);
+		LongVector overflow = LongVector.zero(SPECIES);
+		int k = 0;
+		for (int bound = SPECIES.loopBound(n); k < bound; k += SPECIES.length()) {
+			LongVector x = LongVector.fromArray(SPECIES, a, k);
+			LongVector r = x.add(ys);
+			overflow = overflow.or(x.lanewise(VectorOperators.XOR, r).and(ys.lanewise(VectorOperators.XOR, r)));
+			r.intoArray(out, k);
+		}
+		long tail = 0;
+		for (; k < n; k++) {
+			long x = a[k];
+			long r = x + y;
+			tail |= (x ^ r) & (y ^ r);
+			out[k] = r;
+		}
+		checkSign(overflow.reduceLanes(VectorOperators.OR) | tail);
+	}
+
+	@Override
+	void subtract(long[] a, long[] b, long[] out, int n) {
+		LongVector overflow = LongVector.zero(SPECIES);
+		int k = 0;
+		for (int bound = SPECIES.loopBound(n); k < bound; k += SPECIES.length()) {
+			LongVector x = LongVector.fromArray(SPECIES, a, k);
+			LongVector y = LongVector.fromArray(SPECIES, b, k);
+			LongVector r = x.sub(y);
+			overflow = overflow.or(x.lanewise(VectorOperators.XOR, y).and(x.lanewise(VectorOperators.XOR, r)));
+			r.intoArray(out, k);
+		}
+		long tail = 0;
+		for (; k < n; k++) {
+			long x = a[k];
+			long y = b[k];
+			long r = x - y;
+			tail |= (x ^ y) & (x ^ r);
+			out[k] = r;
+		}
+		checkSign(overflow.reduceLanes(VectorOperators.OR) | tail);
+	}
+
+	@Override
+	void subtractScalar(long[] a, long y, long[] out, int n) {
+		LongVector ys = LongVector.broadcast(SPECIES, y);
+		LongVector overflow = LongVector.zero(SPECIES);
+		int k = 0;
+		for (int bound = SPECIES.loopBound(n); k < bound; k += SPECIES.length()) {
+			LongVector x = LongVector.fromArray(SPECIES, a, k);
+			LongVector r = x.sub(ys);
+			overflow = overflow.or(x.lanewise(VectorOperators.XOR, ys).and(x.lanewise(VectorOperators.XOR, r)));
+			r.intoArray(out, k);
+		}
+		long tail = 0;
+		for (; k < n; k++) {
+			long x = a[k];
+			long r = x - y;
+			tail |= (x ^ y) & (x ^ r);
+			out[k] = r;
+		}
+		checkSign(overflow.reduceLanes(VectorOperators.OR) | tail);
+	}
+
+	@Override
+	void subtractFromScalar(long x, long[] b, long[] out, int n) {
+		LongVector xs = LongVector.broadcast(SPECIES, x);
+		LongVector overflow = LongVector.zero(SPECIES);
+		int k = 0;
+		for (int bound = SPECIES.loopBound(n); k < bound; k += SPECIES.length()) {
+			LongVector y = LongVector.fromArray(SPECIES, b, k);
+			LongVector r = xs.sub(y);
+			overflow = overflow.or(xs.lanewise(VectorOperators.XOR, y).and(xs.lanewise(VectorOperators.XOR, r)));
+			r.intoArray(out, k);
+		}
+		long tail = 0;
+		for (; k < n; k++) {
+			long y = b[k];
+			long r = x - y;
+			tail |= (x ^ y) & (x ^ r);
+			out[k] = r;
+		}
+		checkSign(overflow.reduceLanes(VectorOperators.OR) | tail);
+	}
+
+	/*
+	 * There is no vector form of the exact test for *, so as in the scalar
+	 * loops a block is multiplied with vectors only if all its operands fit
+	 * in an int. The choice is made in a method of its own: if it were made
+	 * in the method with the vector loops, a block that takes the other
+	 * branch for the first time would send those loops back to the
+	 * interpreter, where every vector is a heap object.
+	 */
+
+	@Override
+	void multiply(long[] a, long[] b, long[] out, int n) {
+		if (fitInts(a, n) && fitInts(b, n)) {
+			multiplyInts(a, b, out, n);
+		}
+		else {
+			multiplyExact(a, b, out, n);
+		}
+	}
+
+	@Override
+	void multiplyScalar(long[] a, long y, long[] out, int n) {
+		if (((y + BatchEvaluator.INT_BIAS) >>> 32) == 0 && fitInts(a, n)) {
+			multiplyInts(a, y, out, n);
+		}
+		else {
+			multiplyExact(a, y, out, n);
+		}
+	}
+
+	private static boolean fitInts(long[] a, int n) {
+		LongVector bias = LongVector.broadcast(SPECIES, BatchEvaluator.INT_BIAS);
+		LongVector wide = LongVector.zero(SPECIES);
+		int k = 0;
+		for (int bound = SPECIES.loopBound(n); k < bound; k += SPECIES.length()) {
+			wide = wide.or(LongVector.fromArray(SPECIES, a, k).add(bias));
+		}
+		long tail = 0;
+		for (; k < n; k++) {
+			tail |= a[k] + BatchEvaluator.INT_BIAS;
+		}
+		return ((wide.reduceLanes(VectorOperators.OR) | tail) >>> 32) == 0;
+	}
+
+	private static void multiplyInts(long[] a, long[] b, long[] out, int n) {
+		int k = 0;
+		for (int bound = SPECIES.loopBound(n); k < bound; k += SPECIES.length()) {
+			LongVector.fromArray(SPECIES, a, k).mul(LongVector.fromArray(SPECIES, b, k)).intoArray(out, k);
+		}
+		for (; k < n; k++) {
+			out[k] = a[k] * b[k];
+		}
+	}
+
+	private static void multiplyInts(long[] a, long y, long[] out, int n) {
+		LongVector ys = LongVector.broadcast(SPECIES, y);
+		int k = 0;
+		for (int bound = SPECIES.loopBound(n); k < bound; k += SPECIES.length()) {
+			LongVector.fromArray(SPECIES, a, k).mul(ys).intoArray(out, k);
+		}
+		for (; k < n; k++) {
+			out[k] = a[k] * y;
+		}
+	}
+}